@@ -0,0 +1,138 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Network;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.List;
+
+import cz.mamstylcendy.cdautologin.core.CDWiFiLoginImpl;
+import cz.mamstylcendy.cdautologin.core.CoreLog;
+import cz.mamstylcendy.cdautologin.core.LoginPlatform;
+import cz.mamstylcendy.cdautologin.core.LoginTrace;
+import cz.mamstylcendy.cdautologin.core.PortalAddressBook;
+import cz.mamstylcendy.cdautologin.core.PortalFingerprints;
+
+/**
+ * Connects the login engine to the Android connectivity APIs, logcat and system tracing.
+ */
+public class AndroidLoginPlatform implements LoginPlatform {
+
+    private static final String PK_SPECULATIVE_LOGIN_ENABLED = "speculative_login_enabled";
+
+    private static PortalAddressBook sAddressBook;
+    private static PortalFingerprints sFingerprints;
+
+    static {
+        CoreLog.setSink((priority, tag, message, th) -> {
+            Log.println(priority, tag, th != null ? message + '\n' + Log.getStackTraceString(th) : message);
+        });
+        //the phases show up in Perfetto and systrace captures, Trace is a no-op while not capturing
+        LoginTrace.setSections(new LoginTrace.Sections() {
+            @Override
+            public void begin(String name) {
+                Trace.beginSection(name);
+            }
+
+            @Override
+            public void end() {
+                Trace.endSection();
+            }
+        });
+    }
+
+    private final Context mContext;
+    private final Network mNetwork;
+
+    /**
+     * @param network The network to log in to, or null for the default one.
+     */
+    public AndroidLoginPlatform(Context context, Network network) {
+        mContext = context.getApplicationContext();
+        mNetwork = network;
+    }
+
+    /**
+     * @return A login engine for the network, using the shared clients of the network.
+     */
+    public static CDWiFiLoginImpl newLoginImpl(Context context, Network network) {
+        TraceCapture.install(context);
+        CDWiFiLoginImpl cdwifi = new CDWiFiLoginImpl(
+                new AndroidLoginPlatform(context, network),
+                HttpClientRegistry.getInstance(context).acquire(network)
+        );
+        cdwifi.setSpeculativeLogin(isSpeculativeLoginEnabled(context));
+        return cdwifi;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @see CDWiFiLoginImpl#setSpeculativeLogin(boolean)
+     */
+    public static boolean isSpeculativeLoginEnabled(Context context) {
+        return getPreferences(context).getBoolean(PK_SPECULATIVE_LOGIN_ENABLED, false);
+    }
+
+    public static void setSpeculativeLoginEnabled(Context context, boolean enabled) {
+        getPreferences(context).edit()
+                .putBoolean(PK_SPECULATIVE_LOGIN_ENABLED, enabled)
+                .apply();
+    }
+
+    @Override
+    public boolean isConnectedToWifi() {
+        return ConnectivityManagerCompat.isConnectedToWifi(mContext, mNetwork);
+    }
+
+    @Override
+    public List<InetAddress> getDNSServers() {
+        return ConnectivityManagerCompat.getDNSServers(mContext, mNetwork);
+    }
+
+    @Override
+    public InetAddress getDefaultGateway() {
+        return ConnectivityManagerCompat.getDefaultGateway(mContext, mNetwork);
+    }
+
+    @Override
+    public String getWifiSSID() {
+        return ConnectivityManagerCompat.getWifiSSID(mContext);
+    }
+
+    @Override
+    public String getWifiBSSID() {
+        return ConnectivityManagerCompat.getWifiBSSID(mContext);
+    }
+
+    @Override
+    public String getCaptivePortalUrl() {
+        return ConnectivityManagerCompat.getCaptivePortalUrl(mContext, mNetwork);
+    }
+
+    @Override
+    public PortalAddressBook getAddressBook() {
+        synchronized (AndroidLoginPlatform.class) {
+            if (sAddressBook == null) {
+                sAddressBook = new PortalAddressBook(new File(mContext.getNoBackupFilesDir(), PortalAddressBook.FILE_NAME));
+            }
+            return sAddressBook;
+        }
+    }
+
+    @Override
+    public PortalFingerprints getFingerprints() {
+        synchronized (AndroidLoginPlatform.class) {
+            if (sFingerprints == null) {
+                sFingerprints = new PortalFingerprints(new File(mContext.getNoBackupFilesDir(), PortalFingerprints.FILE_NAME));
+            }
+            return sFingerprints;
+        }
+    }
+}
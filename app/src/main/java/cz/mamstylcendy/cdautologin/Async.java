@@ -10,12 +10,12 @@ import androidx.lifecycle.LifecycleOwner;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+
+import cz.mamstylcendy.cdautologin.core.BackgroundExecutor;
 
 public class Async {
 
-    private static final ExecutorService executor = Executors.newCachedThreadPool();
+    private static final Executor executor = BackgroundExecutor.get();
 
     public static void run(Runnable task) {
         executor.execute(task);
@@ -21,30 +21,81 @@ import androidx.lifecycle.Observer;
 import androidx.lifecycle.Transformations;
 import androidx.work.Constraints;
 import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.ForegroundInfo;
 import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.OutOfQuotaPolicy;
+import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import java.io.IOException;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cz.mamstylcendy.cdautologin.core.CDCaptiveType;
+import cz.mamstylcendy.cdautologin.core.CDWiFiLoginImpl;
+import cz.mamstylcendy.cdautologin.core.CaptivePortalInfo;
+import cz.mamstylcendy.cdautologin.core.Deadline;
+import cz.mamstylcendy.cdautologin.core.LoginTimings;
+import cz.mamstylcendy.cdautologin.core.SpeculationStats;
 
 public class BackgroundLoginWorker extends Worker {
 
     private static final String TAG = "BGWorker";
 
     private static final String WORK_TAG = BackgroundLoginWorker.class.getName();
+    //kept apart from the login work, so that it neither replaces it nor shows up as a login in progress
+    private static final String REFRESH_WORK_NAME = WORK_TAG + ".refresh";
+    //takes the place of the login work while the network backs off, periodic for its flex window
+    private static final String RECHECK_WORK_NAME = WORK_TAG + ".recheck";
 
     private static final String DATA_PROGRESS = "progress";
     private static final String DATA_ERROR_CODE = "error_code";
+    private static final String DATA_TRIGGER_SOURCE = "trigger_source";
+    private static final String DATA_TRIGGER_TIME = "trigger_time";
+    private static final String DATA_TRIGGER_LATENCY = "trigger_latency";
+    private static final String DATA_DEADLINE_PHASE = "deadline_phase";
+    private static final String DATA_TIMINGS = "timings";
+    private static final String DATA_NETWORK_KEY = "network_key";
+    //the portal URL passed to the sign-in activity, the copy in ConnectivityManagerCompat is gone with the process
+    private static final String DATA_PORTAL_URL = "portal_url";
+    private static final String DATA_PORTAL_NETWORK = "portal_network";
+
+    //everything a single attempt does, DNS included, has to fit in this
+    private static final long LOGIN_ATTEMPT_BUDGET_MS = 20000;
+    //a retry that would get less than this of the retry budget is not worth starting
+    private static final long MIN_ATTEMPT_BUDGET_MS = 2000;
+    //a login to a remembered portal that takes longer is likely a wrong guess, detection gets the rest
+    private static final long KNOWN_PORTAL_BUDGET_MS = 5000;
+
+    //the liveness probe and a single login call
+    private static final long REFRESH_BUDGET_MS = 10000;
+    //the session is renewed this long before it is expected to run out, or a tenth of its lifetime if more
+    private static final long MIN_REFRESH_MARGIN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    //the part of the backoff that the re-check may be moved within, so that it batches with other work
+    private static final int RECHECK_FLEX_DIVISOR = 4;
+
+    //how long the fast trigger may wait for WorkManager before giving up on de-duplication
+    private static final long WORK_STATE_TIMEOUT_MS = 2000;
+
+    //the login and the session refresh share the clients of the network, and with them the deadline
+    //and timings of the resolver, only one of them may use the engine of a network at a time
+    //keyed like the clients in HttpClientRegistry, null for the default network, a handful at most
+    private static final Map<Network, ReentrantLock> ENGINE_LOCKS = new HashMap<>();
 
     private static final String SERVICE_NOTIFICATION_CHANNEL_ID = "CDWALForegroundService";
     private static final int SERVICE_NOTIFICATION_ID = 2;
@@ -53,9 +104,24 @@ public class BackgroundLoginWorker extends Worker {
 
     private Notification foregroundNotification;
 
+    private Network loginNetwork;
+    private Throwable lastError;
+    private String deadlinePhase;
+    private LoginTimings timings;
+    private int attempts;
+    private CDCaptiveType captiveType;
+    private boolean expiryRecorded;
+    private String networkKey;
+    //time spent talking to the network, for the wakeup statistics
+    private long radioMillis;
+
+    private final long startTime = System.currentTimeMillis();
+
     public BackgroundLoginWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
         connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        //the process is alive now, take the chance to listen for the next captive network
+        FastLoginTrigger.registerIfEnabled(context);
 
         if (needsForegroundNotification()) {
             setupForegroundServiceNotification(context);
@@ -92,54 +158,107 @@ public class BackgroundLoginWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
+        if (getTriggerSource() == TriggerSource.REFRESH) {
+            return refreshSession();
+        }
         Log.i(TAG, "Begin CDW login.");
-        updateProgress(ProgressCode.DETECT);
-        forceUseWlan();
+        loginNetwork = findLoginNetwork();
+        ReentrantLock lock = getEngineLock(loginNetwork);
+        lock.lock();
         try {
-            Context context = getApplicationContext();
-            CDWiFiLoginImpl cdwifi = new CDWiFiLoginImpl(context);
-            CaptivePortalInfo captiveInfo;
-            try {
-                captiveInfo = cdwifi.detectCaptivePortal();
-            } catch (IOException ex) {
-                logError(ex);
-                return exitWithError(ErrorCode.CAPTIVE_DETECTION_FAILED, ex);
+            return login();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ReentrantLock getEngineLock(Network network) {
+        synchronized (ENGINE_LOCKS) {
+            ReentrantLock lock = ENGINE_LOCKS.get(network);
+            if (lock == null) {
+                lock = new ReentrantLock();
+                ENGINE_LOCKS.put(network, lock);
             }
-            if (captiveInfo == CaptivePortalInfo.failure()) {
-                return exitWithError(ErrorCode.CAPTIVE_DETECTION_FAILED);
+            return lock;
+        }
+    }
+
+    private Result login() {
+        restoreCaptivePortalUrl();
+        try {
+            Context context = getApplicationContext();
+            CDWiFiLoginImpl cdwifi = AndroidLoginPlatform.newLoginImpl(context, loginNetwork);
+            //the constraint job registered from the UI, or a trigger that could not tell the network
+            //apart, may still come for the network backing off
+            TriggerSource source = getTriggerSource();
+            if (source == TriggerSource.CONSTRAINT || source == TriggerSource.FAST || source == TriggerSource.NETWORK) {
+                networkKey = cdwifi.identifyNetwork();
+                ErrorCode backoffError = WakeupBudget.getInstance(context).getBackoffError(networkKey);
+                if (backoffError != null) {
+                    Log.i(TAG, "Network still backing off from " + backoffError + ", login skipped");
+                    return exitBackingOff(backoffError);
+                }
             }
-            Log.i(TAG, "CDW login captive result " + captiveInfo.type);
-            if (captiveInfo.type.isCdWifi()) {
-                updateProgress(ProgressCode.LOGIN);
-                boolean loginSuccess;
+            long loginStartTime = System.currentTimeMillis();
+            int attempt = 0;
+            while (true) {
+                attempt++;
+                attempts = attempt;
+                //the retry budget bounds the whole run, the last attempt only gets what is left of it
+                long attemptBudget = Math.min(LOGIN_ATTEMPT_BUDGET_MS, RetryPolicy.RETRY_BUDGET_MS - (System.currentTimeMillis() - loginStartTime));
+                Deadline deadline = Deadline.after(attemptBudget);
+                cdwifi.setDeadline(deadline);
+                timings = new LoginTimings();
+                cdwifi.setTimings(timings);
+                long attemptStartTime = System.currentTimeMillis();
+                ErrorCode error;
                 try {
-                    Log.d(TAG, "Logging in to captive portal of type " + captiveInfo.type);
-                    loginSuccess = cdwifi.cdWifiLogin(captiveInfo);
-                } catch (IOException ex) {
-                    logError(ex);
-                    return exitWithError(ErrorCode.CAPTIVE_LOGIN_FAILED, ex);
+                    error = runLoginAttempt(cdwifi, deadline);
+                } finally {
+                    cdwifi.cancelPrefetch();
                 }
-
-                Log.i(TAG, "LoginSuccess: " + loginSuccess);
-                if (!isAppInForeground()) {
-                    NetworkStackNotifierCompat notifier = new NetworkStackNotifierCompat(context);
-                    if (loginSuccess) {
-                        notifier.showLoggedInNotification();
-                    } else {
-                        notifier.showLoginFailedNotification();
+                radioMillis += System.currentTimeMillis() - attemptStartTime;
+                networkKey = cdwifi.getNetworkKey();
+                if (!expiryRecorded && captiveType != null && captiveType.isCdWifi()) {
+                    //the session of the last login was over by the time the network turned captive
+                    SessionLifetimes.getInstance(context).recordExpiry(networkKey, getTriggerTime());
+                    expiryRecorded = true;
+                }
+                Log.d(TAG, "Attempt " + attempt + " timings:\n" + timings.describe());
+                if (AndroidLoginPlatform.isSpeculativeLoginEnabled(context)) {
+                    Log.i(TAG, "Speculative logins: " + SpeculationStats.getInstance().describe());
+                }
+                deadlinePhase = error != null ? deadline.getExhaustedPhase() : null;
+                if (deadlinePhase != null) {
+                    Log.w(TAG, "Attempt " + attempt + " ran out of its " + attemptBudget + " ms budget during " + deadlinePhase);
+                }
+                long elapsed = System.currentTimeMillis() - loginStartTime;
+                if (error == null) {
+                    Log.i(TAG, "Login succeeded after " + attempt + " attempt(s) in " + elapsed + " ms");
+                    SessionLifetimes.getInstance(context).recordLogin(networkKey, System.currentTimeMillis());
+                    scheduleRefresh(context, networkKey);
+                    if (!isAppInForeground()) {
+                        new NetworkStackNotifierCompat(context).showLoggedInNotification();
                     }
+                    return exitSuccess();
                 }
 
-                if (loginSuccess) {
-                    return exitSuccess();
-                } else {
-                    return exitWithError(ErrorCode.CAPTIVE_LOGIN_FAILED);
+                long retryDelay = RetryPolicy.forError(error).getRetryDelay(attempt, elapsed);
+                if (retryDelay < 0 || elapsed + retryDelay + MIN_ATTEMPT_BUDGET_MS > RetryPolicy.RETRY_BUDGET_MS || isStopped()) {
+                    Log.i(TAG, "Giving up after " + attempt + " attempt(s) in " + elapsed + " ms with " + error);
+                    if (error == ErrorCode.CAPTIVE_LOGIN_FAILED && lastError == null && !isAppInForeground()) {
+                        new NetworkStackNotifierCompat(context).showLoginFailedNotification();
+                    }
+                    return exitWithError(error, lastError);
                 }
-            } else {
-                if (captiveInfo.type == CDCaptiveType.NONE) {
-                    return exitWithError(ErrorCode.NO_CAPTIVE_PORTAL);
-                } else {
-                    return exitWithError(ErrorCode.CAPTIVE_NOT_CD_WIFI);
+                Log.i(TAG, "Attempt " + attempt + " failed with " + error + ", retrying in " + retryDelay + " ms");
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ex) {
+                    //stopped by WorkManager, the run ends with what the last attempt came to
+                    Thread.currentThread().interrupt();
+                    Log.i(TAG, "Stopped before attempt " + (attempt + 1) + ", giving up with " + error);
+                    return exitWithError(error, lastError);
                 }
             }
         } catch (Throwable th) {
@@ -148,23 +267,172 @@ public class BackgroundLoginWorker extends Worker {
         return exitWithError(ErrorCode.UNKNOWN);
     }
 
+    /**
+     * @return Null on success, otherwise the reason of the failure. The exception that caused it,
+     * if any, is left in {@link #lastError}.
+     */
+    private ErrorCode runLoginAttempt(CDWiFiLoginImpl cdwifi, Deadline deadline) {
+        lastError = null;
+        //the lookups and connections run while the known portal is tried or the network detected
+        cdwifi.prefetch();
+        if (loginToKnownPortal(cdwifi, deadline)) {
+            return null;
+        }
+        updateProgress(ProgressCode.DETECT);
+        CaptivePortalInfo captiveInfo;
+        try {
+            captiveInfo = cdwifi.detectCaptivePortal();
+        } catch (IOException ex) {
+            logError(ex);
+            lastError = ex;
+            return ErrorCode.CAPTIVE_DETECTION_FAILED;
+        }
+        if (captiveInfo == CaptivePortalInfo.failure()) {
+            return ErrorCode.CAPTIVE_DETECTION_FAILED;
+        }
+        Log.i(TAG, "CDW login captive result " + captiveInfo.type);
+        captiveType = captiveInfo.type;
+        if (captiveInfo.isSupported()) {
+            updateProgress(ProgressCode.LOGIN);
+            boolean loginSuccess;
+            try {
+                Log.d(TAG, "Logging in to captive portal of type " + captiveInfo.type);
+                loginSuccess = cdwifi.cdWifiLogin(captiveInfo);
+            } catch (IOException ex) {
+                logError(ex);
+                lastError = ex;
+                return ErrorCode.CAPTIVE_LOGIN_FAILED;
+            }
+
+            Log.i(TAG, "LoginSuccess: " + loginSuccess);
+            if (loginSuccess) {
+                cdwifi.rememberPortal(captiveInfo);
+            }
+            return loginSuccess ? null : ErrorCode.CAPTIVE_LOGIN_FAILED;
+        } else {
+            if (captiveInfo.type == CDCaptiveType.NONE) {
+                return ErrorCode.NO_CAPTIVE_PORTAL;
+            } else {
+                return ErrorCode.CAPTIVE_NOT_CD_WIFI;
+            }
+        }
+    }
+
+    /**
+     * Skips detection on a network whose portal is remembered from earlier logins.
+     *
+     * @return True if logged in, false if the network has to be detected.
+     */
+    private boolean loginToKnownPortal(CDWiFiLoginImpl cdwifi, Deadline deadline) {
+        CaptivePortalInfo knownInfo = cdwifi.getKnownPortal();
+        if (knownInfo == null) {
+            return false;
+        }
+        Log.i(TAG, "Known network with portal " + knownInfo.type + ", skipping detection");
+        updateProgress(ProgressCode.LOGIN);
+        boolean loginSuccess;
+        cdwifi.setDeadline(Deadline.after(Math.min(KNOWN_PORTAL_BUDGET_MS, deadline.remainingMillis())));
+        try {
+            loginSuccess = cdwifi.cdWifiLogin(knownInfo);
+        } catch (IOException ex) {
+            Log.w(TAG, "Login to known portal failed (" + ex.getClass().getSimpleName() + ")");
+            loginSuccess = false;
+        } finally {
+            cdwifi.setDeadline(deadline);
+        }
+        if (loginSuccess) {
+            captiveType = knownInfo.type;
+            cdwifi.rememberPortal(knownInfo);
+            return true;
+        }
+        Log.i(TAG, "Known portal did not accept the login, detecting the network");
+        cdwifi.forgetPortal();
+        return false;
+    }
+
+    /**
+     * Renews the portal session shortly before it is expected to run out, see
+     * {@link #scheduleRefresh(Context, String)}. Never reschedules the login work, the pending
+     * constraint-triggered job stays the fallback.
+     */
+    private Result refreshSession() {
+        try {
+            //the network is not captive while the session lasts, so it is not the one findLoginNetwork looks for
+            loginNetwork = getWlanNetwork();
+            ReentrantLock lock = getEngineLock(loginNetwork);
+            if (loginNetwork == null) {
+                Log.i(TAG, "Session refresh skipped, not on Wi-Fi");
+            } else if (lock.tryLock()) {
+                try {
+                    renewSession();
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                //the login starts a new session anyway
+                Log.i(TAG, "Session refresh skipped, login in progress");
+            }
+        } finally {
+            WakeupBudget.getInstance(getApplicationContext()).recordRun(false, startTime, System.currentTimeMillis() - startTime);
+        }
+        return Result.success();
+    }
+
+    private void renewSession() {
+        Context context = getApplicationContext();
+        String expectedNetworkKey = getInputData().getString(DATA_NETWORK_KEY);
+        SessionLifetimes lifetimes = SessionLifetimes.getInstance(context);
+        try {
+            CDWiFiLoginImpl cdwifi = AndroidLoginPlatform.newLoginImpl(context, loginNetwork);
+            cdwifi.setDeadline(Deadline.after(REFRESH_BUDGET_MS));
+            boolean alive = cdwifi.checkConnectivity();
+            networkKey = cdwifi.getNetworkKey();
+            if (!Objects.equals(expectedNetworkKey, networkKey)) {
+                Log.i(TAG, "Session refresh skipped, on another network now");
+                return;
+            }
+            if (!alive) {
+                long now = System.currentTimeMillis();
+                Log.i(TAG, "Session already expired, logging in");
+                lifetimes.recordExpiry(networkKey, now);
+                trigger(context, TriggerSource.EXPIRED, now);
+                return;
+            }
+            CaptivePortalInfo knownInfo = cdwifi.getKnownPortal();
+            if (knownInfo == null) {
+                Log.i(TAG, "Session refresh skipped, portal of the network not known");
+                return;
+            }
+            if (cdwifi.cdWifiLogin(knownInfo)) {
+                Log.i(TAG, "Session renewed on portal " + knownInfo.type);
+                lifetimes.recordLogin(networkKey, System.currentTimeMillis());
+                scheduleRefresh(context, networkKey);
+            } else {
+                //the legacy portal only serves its form to clients without a session
+                Log.i(TAG, "Portal " + knownInfo.type + " did not renew the session, leaving it to expire");
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Session refresh failed (" + ex.getClass().getSimpleName() + ")");
+        }
+    }
+
     @NonNull
     @Override
     public ForegroundInfo getForegroundInfo() {
         return new ForegroundInfo(SERVICE_NOTIFICATION_ID, foregroundNotification);
     }
 
-    private void forceUseWlan() {
+    private Network findLoginNetwork() {
         //if the wifi has a captive portal, a cellullar data connection may override the connectivity,
         //making it appear as though we have internet access, when, in fact, we only have it over cell
+        //the login engine binds its own sockets to the network, the rest of the process is left alone
         Network captiveWlan = getCaptiveWlanNetwork();
         if (captiveWlan != null) {
             Log.i(TAG, "Forcing use of captive WLAN network: " + captiveWlan);
-            connectivityManager.bindProcessToNetwork(captiveWlan);
         } else {
-            Log.w(TAG, "No captive WLAN network found, process will use default connectivity.");
-            connectivityManager.bindProcessToNetwork(null);
+            Log.w(TAG, "No captive WLAN network found, login will use default connectivity.");
         }
+        return captiveWlan;
     }
 
     @SuppressWarnings("deprecation")
@@ -181,8 +449,30 @@ public class BackgroundLoginWorker extends Worker {
         return null;
     }
 
+    @SuppressWarnings("deprecation")
+    private Network getWlanNetwork() {
+        for (Network net : connectivityManager.getAllNetworks()) {
+            NetworkCapabilities caps = connectivityManager.getNetworkCapabilities(net);
+            if (caps != null && caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                return net;
+            }
+        }
+        return null;
+    }
+
+    private void restoreCaptivePortalUrl() {
+        String url = getInputData().getString(DATA_PORTAL_URL);
+        if (url != null && loginNetwork != null && loginNetwork.getNetworkHandle() == getInputData().getLong(DATA_PORTAL_NETWORK, 0)) {
+            ConnectivityManagerCompat.restoreCaptivePortalUrl(loginNetwork, url);
+        }
+    }
+
     private void wakeUpConnectivityCheck() {
-        connectivityManager.reportNetworkConnectivity(ConnectivityManagerCompat.getBoundOrActiveNetwork(connectivityManager), true);
+        Network network = loginNetwork != null ? loginNetwork : ConnectivityManagerCompat.getBoundOrActiveNetwork(connectivityManager);
+        if (ConnectivityManagerCompat.reportCaptivePortalDismissed(network)) {
+            Log.i(TAG, "Reported the sign-in to the system");
+        }
+        connectivityManager.reportNetworkConnectivity(network, true);
     }
 
     private static boolean isAppInForeground() {
@@ -191,18 +481,84 @@ public class BackgroundLoginWorker extends Worker {
         return state.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND || state.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
     }
 
-    private void resetWlanOverride() {
-        connectivityManager.bindProcessToNetwork(null);
+    private TriggerSource getTriggerSource() {
+        String source = getInputData().getString(DATA_TRIGGER_SOURCE);
+        if (source != null) {
+            return TriggerSource.valueOf(source);
+        }
+        return TriggerSource.CONSTRAINT;
+    }
+
+    private long getTriggerLatency() {
+        return System.currentTimeMillis() - getTriggerTime();
+    }
+
+    /**
+     * @return False if the trigger time is only a guess, see {@link #getTriggerTime()}.
+     */
+    private boolean isTriggerTimeExact() {
+        long triggerTime = getInputData().getLong(DATA_TRIGGER_TIME, 0);
+        return triggerTime != 0 && triggerTime <= startTime;
+    }
+
+    /**
+     * @return Wall clock time of the event that triggered the login, as far as it is known.
+     */
+    private long getTriggerTime() {
+        long triggerTime = getInputData().getLong(DATA_TRIGGER_TIME, 0);
+        if (triggerTime == 0) {
+            //the constraint does not tell us when it was met, the best guess is our own callback
+            triggerTime = FastLoginTrigger.getLastCaptiveNetworkTime();
+        }
+        if (triggerTime == 0 || triggerTime > startTime) {
+            triggerTime = startTime;
+        }
+        return triggerTime;
+    }
+
+    private void recordHistory(ErrorCode error, long latency) {
+        LoginHistory history = LoginHistory.getInstance(getApplicationContext());
+        history.append(new LoginHistory.Record(
+                System.currentTimeMillis(),
+                networkKey,
+                captiveType,
+                error,
+                attempts,
+                isTriggerTimeExact() ? latency : LoginHistory.UNKNOWN_TIME,
+                timings != null ? timings.getEntries() : List.of()
+        ));
+        if (captiveType != null) {
+            LoginHistory.Summary summary = history.getSummariesByType().get(captiveType);
+            if (summary != null) {
+                Log.i(TAG, "Login history for " + captiveType + ": " + summary.describe());
+            }
+        }
+    }
+
+    /**
+     * @param error Null on success.
+     */
+    private Data.Builder newOutputData(ErrorCode error) {
+        TriggerSource source = getTriggerSource();
+        long latency = getTriggerLatency();
+        Log.i(TAG, "Trigger-to-result latency (" + source + "): " + latency + " ms" + (isTriggerTimeExact() ? "" : ", estimated"));
+        recordHistory(error, latency);
+        Data.Builder data = new Data.Builder()
+                .putString(DATA_PROGRESS, ProgressCode.DONE.name())
+                .putString(DATA_TRIGGER_SOURCE, source.name())
+                .putLong(DATA_TRIGGER_LATENCY, latency);
+        if (timings != null) {
+            //only the last attempt, the earlier ones are in the log
+            data.putString(DATA_TIMINGS, timings.serialize());
+        }
+        return data;
     }
 
     private Result exitSuccess() {
         wakeUpConnectivityCheck();
-        resetWlanOverride();
         updateProgress(ProgressCode.DONE);
-        rescheduleOnSuccess();
-        return Result.success(new Data.Builder()
-                .putString(DATA_PROGRESS, ProgressCode.DONE.name())
-                .build());
+        reschedule(null, null);
+        return Result.success(newOutputData(null).build());
     }
 
     private Result exitWithError(ErrorCode code) {
@@ -210,12 +566,26 @@ public class BackgroundLoginWorker extends Worker {
     }
 
     private Result exitWithError(ErrorCode code, Throwable th) {
-        resetWlanOverride();
         updateProgress(ProgressCode.DONE);
-        rescheduleOnFailure(getFailureRescheduleTime(th));
+        reschedule(code, th);
+        Data.Builder data = newOutputData(code)
+                .putString(DATA_ERROR_CODE, code.name());
+        if (deadlinePhase != null) {
+            data.putString(DATA_DEADLINE_PHASE, deadlinePhase);
+        }
+        return Result.failure(data.build());
+    }
+
+    /**
+     * Ends a run that skipped the login, without recording it in the history.
+     */
+    private Result exitBackingOff(ErrorCode code) {
+        updateProgress(ProgressCode.DONE);
+        reschedule(code, null);
         return Result.failure(new Data.Builder()
-                .putString(DATA_ERROR_CODE, code.name())
                 .putString(DATA_PROGRESS, ProgressCode.DONE.name())
+                .putString(DATA_TRIGGER_SOURCE, getTriggerSource().name())
+                .putString(DATA_ERROR_CODE, code.name())
                 .build());
     }
 
@@ -225,10 +595,20 @@ public class BackgroundLoginWorker extends Worker {
                 .build());
     }
 
-    private void reschedule(Integer delayMinutes) {
+    /**
+     * @param error Outcome of the run, null on success.
+     */
+    private void reschedule(ErrorCode error, Throwable th) {
         Context context = getApplicationContext();
         WorkManager workManager = WorkManager.getInstance(context);
         UUID id = getId();
+        WakeupBudget budget = WakeupBudget.getInstance(context);
+        TriggerSource source = getTriggerSource();
+        budget.recordRun(source == TriggerSource.CONSTRAINT || source == TriggerSource.RECHECK, startTime, radioMillis);
+        long delayMillis = budget.scheduleNext(error, networkKey, loginNetwork != null ? loginNetwork.getNetworkHandle() : 0, th);
+        boolean backingOff = budget.isBackingOff();
+        Log.i(TAG, "Next run in " + TimeUnit.MILLISECONDS.toMinutes(delayMillis) + " min" + (backingOff ? " (backing off)" : "")
+                + ", today " + budget.describeToday());
 
         ContextCompat.getMainExecutor(getApplicationContext()).execute(() -> {
             LiveData<WorkInfo> wi = workManager.getWorkInfoByIdLiveData(id);
@@ -239,8 +619,16 @@ public class BackgroundLoginWorker extends Worker {
                     try {
                         if (workInfo == null) {
                             Log.w(TAG, "WorkInfo not found for id " + id);
-                        } else if (workInfo.getState().isFinished()) {
-                            register(context, delayMinutes, ExistingWorkPolicy.REPLACE);
+                        } else if (workInfo.getState() != WorkInfo.State.RUNNING) {
+                            //finished, or enqueued for its next period if a re-check
+                            if (backingOff) {
+                                registerRecheck(context, delayMillis);
+                                CaptiveNetworkReceiver.register(context);
+                            } else {
+                                workManager.cancelUniqueWork(RECHECK_WORK_NAME);
+                                CaptiveNetworkReceiver.unregister(context);
+                                register(context, delayMillis, ExistingWorkPolicy.REPLACE);
+                            }
                         } else {
                             keepObserver = true;
                         }
@@ -254,23 +642,6 @@ public class BackgroundLoginWorker extends Worker {
         });
     }
 
-    private int getFailureRescheduleTime(Throwable th) {
-        if (th instanceof SocketTimeoutException) {
-            //probably weak signal
-            return 1;
-        }
-        return 5;
-    }
-
-    private void rescheduleOnSuccess() {
-        //give 1 minute to refresh captive portal information
-        reschedule(1);
-    }
-
-    private void rescheduleOnFailure(int delayMinutes) {
-        reschedule(delayMinutes);
-    }
-
     private void logError(Throwable throwable) {
         Log.e(TAG, "Error during CDW login (" + throwable.getClass().getSimpleName() + ")", throwable);
         if (throwable instanceof UnknownHostException) {
@@ -295,13 +666,95 @@ public class BackgroundLoginWorker extends Worker {
 
                 OneTimeWorkRequest.Builder request = new OneTimeWorkRequest.Builder(BackgroundLoginWorker.class)
                         .addTag(WORK_TAG)
-                        .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST);
+                        .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                        .setInputData(new Data.Builder()
+                                .putString(DATA_TRIGGER_SOURCE, TriggerSource.MANUAL.name())
+                                .putLong(DATA_TRIGGER_TIME, System.currentTimeMillis())
+                                .build());
 
                 WorkManager.getInstance(context).enqueueUniqueWork(WORK_TAG, ewp, request.build());
             }
         });
     }
 
+    /**
+     * Starts an expedited login right away, unless one is already running. Used by
+     * {@link FastLoginTrigger}, replaces the pending constraint-triggered job.
+     *
+     * @param triggerTime Wall clock time of the event that triggered the login.
+     */
+    public static void triggerNow(Context context, long triggerTime) {
+        trigger(context, TriggerSource.FAST, triggerTime);
+    }
+
+    /**
+     * Starts a login right away on behalf of the sign-in notification of the system, see
+     * {@link CaptivePortalSignInActivity}.
+     *
+     * @param url The portal URL that the system passed along for the network.
+     */
+    public static void triggerSignIn(Context context, Network network, String url, long triggerTime) {
+        trigger(context, TriggerSource.SIGN_IN, triggerTime, new Data.Builder()
+                .putString(DATA_PORTAL_URL, url)
+                .putLong(DATA_PORTAL_NETWORK, network.getNetworkHandle())
+                .build());
+    }
+
+    /**
+     * Starts an expedited login for a captive network that turned up while backing off, see
+     * {@link CaptiveNetworkReceiver}.
+     *
+     * @param onDone Called once the login is enqueued, or it is clear that it will not be.
+     */
+    public static void triggerOnNetwork(Context context, long triggerTime, Runnable onDone) {
+        Async.run(() -> {
+            try {
+                enqueueTrigger(context, TriggerSource.NETWORK, triggerTime, Data.EMPTY);
+            } finally {
+                onDone.run();
+            }
+        });
+    }
+
+    private static void trigger(Context context, TriggerSource source, long triggerTime) {
+        trigger(context, source, triggerTime, Data.EMPTY);
+    }
+
+    private static void trigger(Context context, TriggerSource source, long triggerTime, Data extras) {
+        Async.run(() -> enqueueTrigger(context, source, triggerTime, extras));
+    }
+
+    private static void enqueueTrigger(Context context, TriggerSource source, long triggerTime, Data extras) {
+        WorkManager workManager = WorkManager.getInstance(context);
+        ExistingWorkPolicy ewp = ExistingWorkPolicy.REPLACE;
+        try {
+            for (WorkInfo workInfo : workManager.getWorkInfosForUniqueWork(WORK_TAG).get(WORK_STATE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (workInfo.getState() == WorkInfo.State.RUNNING) {
+                    Log.d(TAG, "Login already running, " + source + " trigger ignored.");
+                    return;
+                }
+            }
+        } catch (ExecutionException | TimeoutException ex) {
+            //never stall on WorkManager, leave it to the constraint-triggered job if there is one
+            Log.w(TAG, "Could not query login work state", ex);
+            ewp = ExistingWorkPolicy.KEEP;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        OneTimeWorkRequest.Builder request = new OneTimeWorkRequest.Builder(BackgroundLoginWorker.class)
+                .addTag(WORK_TAG)
+                .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                .setInputData(new Data.Builder()
+                        .putAll(extras)
+                        .putString(DATA_TRIGGER_SOURCE, source.name())
+                        .putLong(DATA_TRIGGER_TIME, triggerTime)
+                        .build());
+
+        workManager.enqueueUniqueWork(WORK_TAG, ewp, request.build());
+    }
+
     public static LiveData<WorkInfo> getWorkInfo(Context context) {
         return Transformations.map(
                 WorkManager.getInstance(context).getWorkInfosByTagLiveData(WORK_TAG),
@@ -342,26 +795,28 @@ public class BackgroundLoginWorker extends Worker {
         return ErrorCode.UNKNOWN;
     }
 
+    /**
+     * @return Phase timings of the last login attempt of a finished work, or null if there are none.
+     */
+    public static LoginTimings getTimings(WorkInfo workInfo) {
+        String serialized = workInfo.getOutputData().getString(DATA_TIMINGS);
+        return serialized != null ? LoginTimings.deserialize(serialized) : null;
+    }
+
     public static boolean isSuccess(WorkInfo workInfo) {
         return workInfo.getState() == WorkInfo.State.SUCCEEDED;
     }
 
-    private static void register(Context context, Integer delayMinutes, ExistingWorkPolicy existingWorkPolicy) {
+    /**
+     * @param delayMillis When to run, or null to run as soon as there is a captive network.
+     */
+    private static void register(Context context, Long delayMillis, ExistingWorkPolicy existingWorkPolicy) {
         OneTimeWorkRequest.Builder request = new OneTimeWorkRequest.Builder(BackgroundLoginWorker.class)
                 .addTag(WORK_TAG)
-                .setConstraints(new Constraints.Builder()
-                        .setRequiredNetworkRequest(
-                                new NetworkRequest.Builder()
-                                        .addCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL)
-                                        .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
-                                        .build(),
-                                NetworkType.NOT_REQUIRED
-                        )
-                        .build()
-                );
-
-        if (delayMinutes != null) {
-            request.setInitialDelay(delayMinutes, TimeUnit.MINUTES);
+                .setConstraints(newCaptiveNetworkConstraints());
+
+        if (delayMillis != null) {
+            request.setInitialDelay(delayMillis, TimeUnit.MILLISECONDS);
         } else {
             request.setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST);
         }
@@ -369,6 +824,64 @@ public class BackgroundLoginWorker extends Worker {
         WorkManager.getInstance(context).enqueueUniqueWork(WORK_TAG, existingWorkPolicy, request.build());
     }
 
+    /**
+     * Schedules the re-check of the network backing off, in place of the login work. The run may
+     * come early by up to a {@link #RECHECK_FLEX_DIVISOR}th of the backoff, for the system to batch
+     * it with the other work due around that time. Only runs on a captive network, like the login
+     * work, and is cancelled by the first run that is not backing off anymore.
+     */
+    private static void registerRecheck(Context context, long delayMillis) {
+        long interval = Math.max(delayMillis, PeriodicWorkRequest.MIN_PERIODIC_INTERVAL_MILLIS);
+        long flex = Math.max(interval / RECHECK_FLEX_DIVISOR, PeriodicWorkRequest.MIN_PERIODIC_FLEX_MILLIS);
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(BackgroundLoginWorker.class,
+                interval, TimeUnit.MILLISECONDS, flex, TimeUnit.MILLISECONDS)
+                .addTag(RECHECK_WORK_NAME)
+                .setConstraints(newCaptiveNetworkConstraints())
+                .setInputData(new Data.Builder()
+                        .putString(DATA_TRIGGER_SOURCE, TriggerSource.RECHECK.name())
+                        .build())
+                .build();
+        //keeps a re-check that is running, the new interval applies from its next period
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(RECHECK_WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request);
+    }
+
+    private static Constraints newCaptiveNetworkConstraints() {
+        return new Constraints.Builder()
+                .setRequiredNetworkRequest(
+                        new NetworkRequest.Builder()
+                                .addCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL)
+                                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                                .build(),
+                        NetworkType.NOT_REQUIRED
+                )
+                .build();
+    }
+
+    /**
+     * Schedules the renewal of the session just started on the network, if it is known how long
+     * sessions last there. Otherwise, any pending renewal of an earlier session is cancelled.
+     */
+    private static void scheduleRefresh(Context context, String networkKey) {
+        WorkManager workManager = WorkManager.getInstance(context);
+        long lifetime = SessionLifetimes.getInstance(context).getExpectedLifetime(networkKey);
+        if (lifetime < 0) {
+            workManager.cancelUniqueWork(REFRESH_WORK_NAME);
+            return;
+        }
+        long delay = lifetime - Math.max(MIN_REFRESH_MARGIN_MS, lifetime / 10);
+        Log.i(TAG, "Sessions last " + TimeUnit.MILLISECONDS.toMinutes(lifetime) + " min, renewing in "
+                + TimeUnit.MILLISECONDS.toMinutes(delay) + " min");
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(BackgroundLoginWorker.class)
+                .addTag(REFRESH_WORK_NAME)
+                .setInitialDelay(delay, TimeUnit.MILLISECONDS)
+                .setInputData(new Data.Builder()
+                        .putString(DATA_TRIGGER_SOURCE, TriggerSource.REFRESH.name())
+                        .putString(DATA_NETWORK_KEY, networkKey)
+                        .build())
+                .build();
+        workManager.enqueueUniqueWork(REFRESH_WORK_NAME, ExistingWorkPolicy.REPLACE, request);
+    }
+
     public static void registerIfNotPresent(Context context) {
         register(context, null, ExistingWorkPolicy.KEEP);
     }
@@ -381,6 +894,22 @@ public class BackgroundLoginWorker extends Worker {
         UNKNOWN
     }
 
+    public enum TriggerSource {
+        CONSTRAINT,
+        FAST,
+        MANUAL,
+        //the user picked the app to sign in to the network with
+        SIGN_IN,
+        //renewal of a session about to expire, not a login run
+        REFRESH,
+        //a renewal found the session already over
+        EXPIRED,
+        //the delayed job of a network backing off, see WakeupBudget
+        RECHECK,
+        //a captive network turned up while backing off, see CaptiveNetworkReceiver
+        NETWORK
+    }
+
     public enum ProgressCode {
         NOT_STARTED,
         DETECT,
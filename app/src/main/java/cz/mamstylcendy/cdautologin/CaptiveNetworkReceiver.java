@@ -0,0 +1,74 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import androidx.core.content.IntentCompat;
+
+/**
+ * Starts a login when a captive Wi-Fi network turns up while the login job is delayed by a
+ * backoff, see {@link WakeupBudget}. Unlike the callback of {@link FastLoginTrigger}, the system
+ * keeps the registration after the process is gone, so a train joined hours later is not missed.
+ * The network backing off is ignored, the system reports it right after registering.
+ */
+public class CaptiveNetworkReceiver extends BroadcastReceiver {
+
+    private static final String TAG = CaptiveNetworkReceiver.class.getSimpleName();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Network network = IntentCompat.getParcelableExtra(intent, ConnectivityManager.EXTRA_NETWORK, Network.class);
+        if (network == null || WakeupBudget.getInstance(context).isBackingOff(network.getNetworkHandle())) {
+            return;
+        }
+        Log.i(TAG, "Captive WLAN network appeared while backing off: " + network);
+        PendingResult result = goAsync();
+        BackgroundLoginWorker.triggerOnNetwork(context.getApplicationContext(), System.currentTimeMillis(), result::finish);
+    }
+
+    /**
+     * Does nothing if already registered, registering again would report the current network anew.
+     */
+    public static void register(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        //the intent lives on for as long as the system holds the registration
+        if (cm == null || PendingIntent.getBroadcast(context, 0, newIntent(context), PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_MUTABLE) != null) {
+            return;
+        }
+        cm.registerNetworkCallback(
+                new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL)
+                        .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                        .build(),
+                newPendingIntent(context)
+        );
+    }
+
+    public static void unregister(Context context) {
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, newIntent(context), PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_MUTABLE);
+        if (pendingIntent == null) {
+            return;
+        }
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            cm.unregisterNetworkCallback(pendingIntent);
+        }
+        pendingIntent.cancel();
+    }
+
+    private static PendingIntent newPendingIntent(Context context) {
+        //mutable, the system adds the network to it
+        return PendingIntent.getBroadcast(context, 0, newIntent(context), PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE);
+    }
+
+    private static Intent newIntent(Context context) {
+        return new Intent(context, CaptiveNetworkReceiver.class);
+    }
+}
@@ -0,0 +1,63 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.CaptivePortal;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.core.content.IntentCompat;
+
+import cz.mamstylcendy.cdautologin.core.PortalRegistry;
+
+/**
+ * Offered by the system when the user taps its notification to sign in to a captive network. The
+ * system passes along the portal URL that its own connectivity check was redirected to, which
+ * spares the login the connectivity test, and a handle to report the sign-in with, which dismisses
+ * the notification. Portals the app cannot log in to are handed over to the sign-in app of the
+ * system.
+ */
+public class CaptivePortalSignInActivity extends Activity {
+
+    private static final String TAG = CaptivePortalSignInActivity.class.getSimpleName();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        Intent intent = getIntent();
+        Network network = IntentCompat.getParcelableExtra(intent, ConnectivityManager.EXTRA_NETWORK, Network.class);
+        String url = intent.getStringExtra(ConnectivityManager.EXTRA_CAPTIVE_PORTAL_URL);
+        CaptivePortal captivePortal = IntentCompat.getParcelableExtra(intent, ConnectivityManager.EXTRA_CAPTIVE_PORTAL, CaptivePortal.class);
+        Log.i(TAG, "Sign-in requested on " + network + ", portal " + url);
+
+        if (network != null && url != null && !PortalRegistry.getDefault().findHandlers(url).isEmpty()) {
+            ConnectivityManagerCompat.setCaptivePortal(network, url, captivePortal);
+            BackgroundLoginWorker.triggerSignIn(this, network, url, System.currentTimeMillis());
+            Toast.makeText(this, R.string.status_logging_in, Toast.LENGTH_SHORT).show();
+        } else {
+            forwardToSystemSignIn(intent);
+        }
+        finish();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void forwardToSystemSignIn(Intent intent) {
+        Intent query = new Intent(ConnectivityManager.ACTION_CAPTIVE_PORTAL_SIGN_IN);
+        for (ResolveInfo info : getPackageManager().queryIntentActivities(query, PackageManager.MATCH_DEFAULT_ONLY)) {
+            if (!getPackageName().equals(info.activityInfo.packageName)) {
+                //with the extras, the captive portal handle included
+                Intent forward = new Intent(intent)
+                        .setClassName(info.activityInfo.packageName, info.activityInfo.name);
+                startActivity(forward);
+                return;
+            }
+        }
+        Log.w(TAG, "No other app to sign in to the network with");
+    }
+}
@@ -1,6 +1,7 @@
 package cz.mamstylcendy.cdautologin;
 
 import android.content.Context;
+import android.net.CaptivePortal;
 import android.net.ConnectivityManager;
 import android.net.DhcpInfo;
 import android.net.LinkProperties;
@@ -8,6 +9,7 @@ import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
 import android.net.RouteInfo;
+import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Build;
 
@@ -20,6 +22,14 @@ import java.util.List;
 
 public class ConnectivityManagerCompat {
 
+    //WifiManager.UNKNOWN_SSID is hidden from the SDK
+    private static final String UNKNOWN_SSID = "<unknown ssid>";
+
+    //handed over by the system along with the request to sign in to the network
+    private static Network sCaptivePortalNetwork;
+    private static String sCaptivePortalUrl;
+    private static CaptivePortal sCaptivePortal;
+
     public static Network getBoundOrActiveNetwork(ConnectivityManager cm) {
         Network network = cm.getBoundNetworkForProcess();
         if (network != null) {
@@ -28,21 +38,35 @@ public class ConnectivityManagerCompat {
         return cm.getActiveNetwork();
     }
 
+    private static Network getNetworkOrBoundOrActive(ConnectivityManager cm, Network network) {
+        if (network != null) {
+            return network;
+        }
+        return getBoundOrActiveNetwork(cm);
+    }
+
     public static InetAddress getDefaultGateway(Context context) {
+        return getDefaultGateway(context, null);
+    }
+
+    /**
+     * @param network The network to query, or null for the bound or active one.
+     */
+    public static InetAddress getDefaultGateway(Context context, Network network) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            return getDefaultGatewayAPI23(context);
+            return getDefaultGatewayAPI23(context, network);
         } else {
             return getDefaultGatewayBelow23(context);
         }
     }
 
     @RequiresApi(Build.VERSION_CODES.M)
-    private static InetAddress getDefaultGatewayAPI23(Context context) {
+    private static InetAddress getDefaultGatewayAPI23(Context context, Network network) {
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         if (cm == null) {
             return null;
         }
-        LinkProperties linkProperties = cm.getLinkProperties(getBoundOrActiveNetwork(cm));
+        LinkProperties linkProperties = cm.getLinkProperties(getNetworkOrBoundOrActive(cm, network));
         if (linkProperties == null) {
             return null;
         }
@@ -67,20 +91,27 @@ public class ConnectivityManagerCompat {
     }
 
     public static List<InetAddress> getDNSServers(Context context) {
+        return getDNSServers(context, null);
+    }
+
+    /**
+     * @param network The network to query, or null for the bound or active one.
+     */
+    public static List<InetAddress> getDNSServers(Context context, Network network) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            return getDNSServersAPI23(context);
+            return getDNSServersAPI23(context, network);
         } else {
             return getDNSServersBelow23(context);
         }
     }
 
     @RequiresApi(Build.VERSION_CODES.M)
-    private static List<InetAddress> getDNSServersAPI23(Context context) {
+    private static List<InetAddress> getDNSServersAPI23(Context context, Network network) {
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         if (cm == null) {
             return null;
         }
-        LinkProperties linkProperties = cm.getLinkProperties(getBoundOrActiveNetwork(cm));
+        LinkProperties linkProperties = cm.getLinkProperties(getNetworkOrBoundOrActive(cm, network));
         if (linkProperties == null) {
             return null;
         }
@@ -126,21 +157,131 @@ public class ConnectivityManagerCompat {
         }
     }
 
+    /**
+     * @return The SSID of the current Wi-Fi network, or null if the system does not disclose it
+     * (which it does not without location access).
+     */
+    @SuppressWarnings("deprecation")
+    public static String getWifiSSID(Context context) {
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager == null) {
+            return null;
+        }
+        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+        if (wifiInfo == null) {
+            return null;
+        }
+        String ssid = wifiInfo.getSSID();
+        if (ssid == null || UNKNOWN_SSID.equals(ssid)) {
+            return null;
+        }
+        return ssid;
+    }
+
+    /**
+     * @return The BSSID of the current access point, or null if the system does not disclose it.
+     * Without the location permission, that is a fixed placeholder the caller has to tell apart.
+     */
+    @SuppressWarnings("deprecation")
+    public static String getWifiBSSID(Context context) {
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager == null) {
+            return null;
+        }
+        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+        return wifiInfo != null ? wifiInfo.getBSSID() : null;
+    }
+
+    /**
+     * Remembers the portal URL and handle that the system passed along when it asked the app to
+     * sign in to the network, see {@link ConnectivityManager#ACTION_CAPTIVE_PORTAL_SIGN_IN}.
+     *
+     * @param captivePortal The handle to report the sign-in with, or null if there is none.
+     */
+    public static synchronized void setCaptivePortal(Network network, String url, CaptivePortal captivePortal) {
+        sCaptivePortalNetwork = network;
+        sCaptivePortalUrl = url;
+        sCaptivePortal = captivePortal;
+    }
+
+    /**
+     * Brings back the portal URL of the network after the process was restarted. The handle does
+     * not survive that, the connectivity check of the system has to notice the sign-in by itself.
+     */
+    public static synchronized void restoreCaptivePortalUrl(Network network, String url) {
+        if (!network.equals(sCaptivePortalNetwork)) {
+            setCaptivePortal(network, url, null);
+        }
+    }
+
+    /**
+     * Tells the system that the network is signed in to, which dismisses its sign-in
+     * notification and has it check the network again.
+     *
+     * @return False if the system did not ask to sign in to the network, or the handle is gone.
+     */
+    public static synchronized boolean reportCaptivePortalDismissed(Network network) {
+        if (network == null || !network.equals(sCaptivePortalNetwork) || sCaptivePortal == null) {
+            return false;
+        }
+        sCaptivePortal.reportCaptivePortalDismissed();
+        //the handle is only good for one report
+        sCaptivePortal = null;
+        return true;
+    }
+
+    /**
+     * The captive portal API URL and data that the network advertises (DHCP option 114, RFC 8910)
+     * are kept from apps without the network settings permission, so this is the URL that the
+     * connectivity check of the system was redirected to, as passed to the sign-in activity.
+     *
+     * @param network The network to query, or null for the bound or active one.
+     * @return The captive portal URL of the network, or null if the system has not told, or no
+     * longer finds the network captive.
+     */
+    public static String getCaptivePortalUrl(Context context, Network network) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return null;
+        }
+        network = getNetworkOrBoundOrActive(cm, network);
+        String url;
+        synchronized (ConnectivityManagerCompat.class) {
+            if (network == null || !network.equals(sCaptivePortalNetwork)) {
+                return null;
+            }
+            url = sCaptivePortalUrl;
+        }
+        //stale once logged in, the portal would not serve the login again
+        NetworkCapabilities capabilities = cm.getNetworkCapabilities(network);
+        if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL)) {
+            return null;
+        }
+        return url;
+    }
+
     public static boolean isConnectedToWifi(Context context) {
+        return isConnectedToWifi(context, null);
+    }
+
+    /**
+     * @param network The network to check, or null for the bound or active one.
+     */
+    public static boolean isConnectedToWifi(Context context, Network network) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            return isConnectedToWifiAPI23(context);
+            return isConnectedToWifiAPI23(context, network);
         } else {
             return isConnectedToWifiBelow23(context);
         }
     }
 
     @RequiresApi(Build.VERSION_CODES.M)
-    private static boolean isConnectedToWifiAPI23(Context context) {
+    private static boolean isConnectedToWifiAPI23(Context context, Network network) {
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         if (cm == null) {
             return false;
         }
-        Network network = getBoundOrActiveNetwork(cm);
+        network = getNetworkOrBoundOrActive(cm, network);
         if (network == null) {
             return false;
         }
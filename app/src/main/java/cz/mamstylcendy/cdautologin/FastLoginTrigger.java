@@ -0,0 +1,100 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Optional low-latency trigger of the login worker.
+ * <p>
+ * The WorkManager network constraint goes through JobScheduler, which likes to batch jobs and
+ * leaves tens of seconds between joining the network and the login. While the process is alive,
+ * this callback enqueues an expedited login the moment a captive Wi-Fi network appears. The
+ * constraint-triggered job stays registered as the fallback.
+ */
+public class FastLoginTrigger {
+
+    private static final String TAG = FastLoginTrigger.class.getSimpleName();
+
+    private static final String PK_FAST_TRIGGER_ENABLED = "fast_trigger_enabled";
+
+    private static ConnectivityManager.NetworkCallback sCallback;
+    private static volatile long sLastCaptiveNetworkTime;
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
+    }
+
+    public static boolean isEnabled(Context context) {
+        return getPreferences(context).getBoolean(PK_FAST_TRIGGER_ENABLED, true);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        getPreferences(context).edit()
+                .putBoolean(PK_FAST_TRIGGER_ENABLED, enabled)
+                .apply();
+        if (enabled) {
+            registerIfEnabled(context);
+        } else {
+            unregister(context);
+        }
+    }
+
+    /**
+     * @return Wall clock time of the last captive Wi-Fi network appearance seen by this process,
+     * or 0 if there was none.
+     */
+    public static long getLastCaptiveNetworkTime() {
+        return sLastCaptiveNetworkTime;
+    }
+
+    public static synchronized void registerIfEnabled(Context context) {
+        if (sCallback != null || !isEnabled(context)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        ConnectivityManager cm = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        sCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                //called once per network each time it becomes captive, no need to de-duplicate here
+                long now = System.currentTimeMillis();
+                sLastCaptiveNetworkTime = now;
+                Log.i(TAG, "Captive WLAN network appeared: " + network);
+                if (WakeupBudget.getInstance(appContext).isBackingOff(network.getNetworkHandle())) {
+                    //reported again on registering, the delayed job will be back for it
+                    Log.d(TAG, "Network backing off, trigger ignored.");
+                    return;
+                }
+                BackgroundLoginWorker.triggerNow(appContext, now);
+            }
+        };
+        cm.registerNetworkCallback(
+                new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL)
+                        .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                        .build(),
+                sCallback
+        );
+    }
+
+    public static synchronized void unregister(Context context) {
+        if (sCallback == null) {
+            return;
+        }
+        ConnectivityManager cm = (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            cm.unregisterNetworkCallback(sCallback);
+        }
+        sCallback = null;
+    }
+}
@@ -0,0 +1,90 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cz.mamstylcendy.cdautologin.core.LoginClients;
+
+/**
+ * Process-wide HTTP clients, one set per network, so that consecutive worker runs can reuse warm
+ * connections to the portal instead of building everything from scratch.
+ */
+public class HttpClientRegistry {
+
+    private static final String TAG = HttpClientRegistry.class.getSimpleName();
+
+    //the worker is rescheduled every 1-5 minutes, keep connections around until the next run after
+    //a failure as well, with a minute to spare for WorkManager starting it late
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = RetryPolicy.MAX_RESCHEDULE_MINUTES + 1;
+
+    private static HttpClientRegistry sInstance;
+
+    //keyed by network, null stands for the default one
+    private final Map<Network, LoginClients> mClients = new HashMap<>();
+    private final Map<Network, Integer> mReuseCounts = new HashMap<>();
+
+    private HttpClientRegistry() {
+
+    }
+
+    public static synchronized HttpClientRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HttpClientRegistry();
+            sInstance.registerNetworkCallback(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private void registerNetworkCallback(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        cm.registerNetworkCallback(
+                new NetworkRequest.Builder()
+                        .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                        .build(),
+                new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onLost(@NonNull Network network) {
+                        evict(network);
+                    }
+                }
+        );
+    }
+
+    public synchronized LoginClients acquire(Network network) {
+        LoginClients clients = mClients.get(network);
+        int reuseCount = 0;
+        if (clients == null) {
+            clients = new LoginClients(NetworkSocketBinding.of(network), MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES);
+            mClients.put(network, clients);
+        } else {
+            Integer previous = mReuseCounts.get(network);
+            reuseCount = previous != null ? previous + 1 : 1;
+        }
+        mReuseCounts.put(network, reuseCount);
+        Log.d(TAG, "HTTP clients for " + network + " reused " + reuseCount + " times, "
+                + clients.connectionPool.idleConnectionCount() + " idle connections in pool");
+        return clients;
+    }
+
+    public synchronized void evict(Network network) {
+        LoginClients clients = mClients.remove(network);
+        mReuseCounts.remove(network);
+        if (clients != null) {
+            Log.d(TAG, "Evicting HTTP clients for lost network " + network);
+            clients.connectionPool.evictAll();
+        }
+    }
+}
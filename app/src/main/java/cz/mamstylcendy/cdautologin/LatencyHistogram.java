@@ -0,0 +1,70 @@
+package cz.mamstylcendy.cdautologin;
+
+/**
+ * Log-scale histogram for percentile estimates in constant memory. Each bucket is 10 % wider than
+ * the previous one, so an estimate is never off by more than that.
+ */
+public class LatencyHistogram {
+
+    private static final double BUCKET_GROWTH = 1.1;
+    //1.1^128 ms is way past any login, the last bucket catches the rest
+    private static final int BUCKET_COUNT = 128;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private int mTotal;
+
+    public LatencyHistogram() {
+    }
+
+    public LatencyHistogram(LatencyHistogram other) {
+        System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKET_COUNT);
+        mTotal = other.mTotal;
+    }
+
+    private static int bucketOf(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKET_COUNT - 1, Math.ceil(Math.log(millis) / Math.log(BUCKET_GROWTH)));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return Math.round(Math.pow(BUCKET_GROWTH, bucket));
+    }
+
+    public void add(long millis) {
+        mCounts[bucketOf(millis)]++;
+        mTotal++;
+    }
+
+    public void remove(long millis) {
+        int bucket = bucketOf(millis);
+        if (mCounts[bucket] > 0) {
+            mCounts[bucket]--;
+            mTotal--;
+        }
+    }
+
+    public int getCount() {
+        return mTotal;
+    }
+
+    /**
+     * @param percentile 0 to 100.
+     * @return The upper bound of the bucket holding the percentile, or -1 if there are no values.
+     */
+    public long getPercentile(double percentile) {
+        if (mTotal == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(mTotal * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+}
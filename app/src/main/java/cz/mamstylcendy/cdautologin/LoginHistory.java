@@ -0,0 +1,379 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import cz.mamstylcendy.cdautologin.core.CDCaptiveType;
+import cz.mamstylcendy.cdautologin.core.DataFiles;
+import cz.mamstylcendy.cdautologin.core.LoginTimings;
+import cz.mamstylcendy.cdautologin.core.PortalAddressBook;
+
+/**
+ * Append-only log of finished login runs, kept across WorkManager history pruning.
+ * <p>
+ * Records are appended to a small binary file, which is rotated once it grows past
+ * {@link #MAX_FILE_BYTES}, so at most two files are ever kept. Success rate and time-to-online
+ * percentiles per portal type and per network are scanned from the files once and then kept up to
+ * date on every append and rotation.
+ */
+public class LoginHistory {
+
+    private static final String TAG = LoginHistory.class.getSimpleName();
+
+    private static final String FILE_NAME = "login_history.bin";
+    private static final String ROTATED_FILE_NAME = "login_history.1.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_FILE_BYTES = 64 * 1024;
+    //anything longer is a torn or foreign record
+    private static final int MAX_RECORD_BYTES = 8 * 1024;
+
+    public static final long UNKNOWN_TIME = -1;
+
+    private static LoginHistory sInstance;
+
+    private final File mFile;
+    private final File mRotatedFile;
+
+    private Map<CDCaptiveType, Summary> mByType;
+    private Map<String, Summary> mByNetwork;
+
+    public static class Record {
+        public final long timestamp;
+        public final String networkKey;
+        //null if detection did not get that far
+        public final CDCaptiveType type;
+        //null on success
+        public final BackgroundLoginWorker.ErrorCode error;
+        public final int attempts;
+        //UNKNOWN_TIME if the run did not know when it was triggered
+        public final long timeToOnlineMs;
+        //phases of the last attempt
+        public final List<LoginTimings.Entry> phases;
+
+        public Record(long timestamp, String networkKey, CDCaptiveType type, BackgroundLoginWorker.ErrorCode error,
+                      int attempts, long timeToOnlineMs, List<LoginTimings.Entry> phases) {
+            this.timestamp = timestamp;
+            this.networkKey = networkKey;
+            this.type = type;
+            this.error = error;
+            this.attempts = attempts;
+            this.timeToOnlineMs = timeToOnlineMs;
+            this.phases = phases;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public boolean hasTimeToOnline() {
+            return timeToOnlineMs != UNKNOWN_TIME;
+        }
+    }
+
+    public static class Summary {
+        private int mRuns;
+        private int mSuccesses;
+        //successful runs only, failures never get online
+        private final LatencyHistogram mTimeToOnline;
+
+        private Summary() {
+            mTimeToOnline = new LatencyHistogram();
+        }
+
+        private Summary(Summary other) {
+            mRuns = other.mRuns;
+            mSuccesses = other.mSuccesses;
+            mTimeToOnline = new LatencyHistogram(other.mTimeToOnline);
+        }
+
+        private void add(Record record) {
+            mRuns++;
+            if (record.isSuccess()) {
+                mSuccesses++;
+                //a guessed start would skew the percentiles
+                if (record.hasTimeToOnline()) {
+                    mTimeToOnline.add(record.timeToOnlineMs);
+                }
+            }
+        }
+
+        private void remove(Record record) {
+            mRuns--;
+            if (record.isSuccess()) {
+                mSuccesses--;
+                if (record.hasTimeToOnline()) {
+                    mTimeToOnline.remove(record.timeToOnlineMs);
+                }
+            }
+        }
+
+        public int getRuns() {
+            return mRuns;
+        }
+
+        public double getSuccessRate() {
+            return mRuns != 0 ? (double) mSuccesses / mRuns : 0;
+        }
+
+        /**
+         * @return Time-to-online of successful runs at the percentile, or -1 if there were none.
+         * Runs without an exact trigger time are left out.
+         */
+        public long getTimeToOnlinePercentile(double percentile) {
+            return mTimeToOnline.getPercentile(percentile);
+        }
+
+        public long getP50() {
+            return getTimeToOnlinePercentile(50);
+        }
+
+        public long getP95() {
+            return getTimeToOnlinePercentile(95);
+        }
+
+        public long getP99() {
+            return getTimeToOnlinePercentile(99);
+        }
+
+        public String describe() {
+            return String.format(Locale.ROOT, "%d runs, %.0f %% ok, p50=%d ms, p95=%d ms, p99=%d ms",
+                    mRuns, getSuccessRate() * 100, getP50(), getP95(), getP99());
+        }
+
+        private boolean isEmpty() {
+            return mRuns == 0;
+        }
+    }
+
+    public LoginHistory(File dir) {
+        mFile = new File(dir, FILE_NAME);
+        mRotatedFile = new File(dir, ROTATED_FILE_NAME);
+    }
+
+    public static synchronized LoginHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LoginHistory(context.getApplicationContext().getNoBackupFilesDir());
+        }
+        return sInstance;
+    }
+
+    public synchronized void append(Record record) {
+        loadSummaries();
+        byte[] data;
+        try {
+            data = encode(record);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (mFile.length() + data.length + 4 > MAX_FILE_BYTES) {
+            rotate();
+        }
+        try (FileOutputStream fileOut = new FileOutputStream(mFile, true)) {
+            DataOutputStream out = new DataOutputStream(fileOut);
+            out.writeInt(data.length);
+            out.write(data);
+            out.flush();
+        } catch (IOException ex) {
+            Log.w(TAG, "Could not append to login history", ex);
+            return;
+        }
+        addToSummaries(record);
+    }
+
+    /**
+     * @return Aggregates over the retained history per portal type, types without runs are left out.
+     */
+    public synchronized Map<CDCaptiveType, Summary> getSummariesByType() {
+        loadSummaries();
+        return copyOf(mByType);
+    }
+
+    /**
+     * @return Aggregates over the retained history per network key, see {@link PortalAddressBook}.
+     */
+    public synchronized Map<String, Summary> getSummariesByNetwork() {
+        loadSummaries();
+        return copyOf(mByNetwork);
+    }
+
+    private static <K> Map<K, Summary> copyOf(Map<K, Summary> summaries) {
+        Map<K, Summary> copy = new HashMap<>();
+        for (Map.Entry<K, Summary> entry : summaries.entrySet()) {
+            copy.put(entry.getKey(), new Summary(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * @return All retained records, oldest first.
+     */
+    public synchronized List<Record> readAll() {
+        List<Record> records = new ArrayList<>();
+        readFile(mRotatedFile, records);
+        readFile(mFile, records);
+        return records;
+    }
+
+    private void rotate() {
+        //the records about to be dropped must leave the aggregates as well
+        List<Record> dropped = new ArrayList<>();
+        readFile(mRotatedFile, dropped);
+        for (Record record : dropped) {
+            removeFromSummaries(record);
+        }
+        if (mRotatedFile.exists() && !mRotatedFile.delete()) {
+            Log.w(TAG, "Could not delete " + mRotatedFile);
+        }
+        if (!mFile.renameTo(mRotatedFile)) {
+            Log.w(TAG, "Could not rotate " + mFile);
+            mFile.delete();
+        }
+    }
+
+    private void loadSummaries() {
+        if (mByType == null) {
+            mByType = new HashMap<>();
+            mByNetwork = new HashMap<>();
+            List<Record> records = new ArrayList<>();
+            readFile(mRotatedFile, records);
+            long validLength = readFile(mFile, records);
+            if (validLength < mFile.length()) {
+                //cut off a torn record, or everything appended after it would be unreadable
+                try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+                    file.setLength(validLength);
+                } catch (IOException ex) {
+                    Log.w(TAG, "Could not truncate " + mFile, ex);
+                }
+            }
+            for (Record record : records) {
+                addToSummaries(record);
+            }
+        }
+    }
+
+    private void addToSummaries(Record record) {
+        if (record.type != null) {
+            mByType.computeIfAbsent(record.type, k -> new Summary()).add(record);
+        }
+        if (record.networkKey != null) {
+            mByNetwork.computeIfAbsent(record.networkKey, k -> new Summary()).add(record);
+        }
+    }
+
+    private void removeFromSummaries(Record record) {
+        removeFrom(mByType, record.type, record);
+        removeFrom(mByNetwork, record.networkKey, record);
+    }
+
+    private static <K> void removeFrom(Map<K, Summary> summaries, K key, Record record) {
+        Summary summary = key != null ? summaries.get(key) : null;
+        if (summary != null) {
+            summary.remove(record);
+            if (summary.isEmpty()) {
+                summaries.remove(key);
+            }
+        }
+    }
+
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(record.timestamp);
+        out.writeUTF(record.networkKey != null ? record.networkKey : "");
+        out.writeUTF(record.type != null ? record.type.name() : "");
+        out.writeUTF(record.error != null ? record.error.name() : "");
+        out.writeShort(Math.min(record.attempts, Short.MAX_VALUE));
+        out.writeInt((int) Math.min(record.timeToOnlineMs, Integer.MAX_VALUE));
+        out.writeByte(Math.min(record.phases.size(), 255));
+        for (int i = 0; i < Math.min(record.phases.size(), 255); i++) {
+            LoginTimings.Entry phase = record.phases.get(i);
+            out.writeUTF(phase.phase);
+            out.writeInt((int) Math.min(phase.durationMs, Integer.MAX_VALUE));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != FORMAT_VERSION) {
+            return null;
+        }
+        long timestamp = in.readLong();
+        String networkKey = in.readUTF();
+        String type = in.readUTF();
+        String error = in.readUTF();
+        int attempts = in.readShort();
+        long timeToOnlineMs = in.readInt();
+        int phaseCount = in.readUnsignedByte();
+        List<LoginTimings.Entry> phases = new ArrayList<>(phaseCount);
+        for (int i = 0; i < phaseCount; i++) {
+            phases.add(new LoginTimings.Entry(in.readUTF(), in.readInt(), LoginTimings.NO_BYTES, LoginTimings.OUTCOME_OK));
+        }
+        try {
+            return new Record(
+                    timestamp,
+                    networkKey.isEmpty() ? null : networkKey,
+                    type.isEmpty() ? null : CDCaptiveType.valueOf(type),
+                    error.isEmpty() ? null : BackgroundLoginWorker.ErrorCode.valueOf(error),
+                    attempts,
+                    timeToOnlineMs,
+                    phases
+            );
+        } catch (IllegalArgumentException ex) {
+            //written by a version with different enums
+            return null;
+        }
+    }
+
+    /**
+     * @return Length of the intact part of the file.
+     */
+    private static long readFile(File file, List<Record> records) {
+        long validLength = 0;
+        try (DataInputStream in = DataFiles.openInput(file)) {
+            if (in == null) {
+                //nothing logged yet
+                return 0;
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    Log.w(TAG, "Damaged record in " + file + ", ignoring the rest");
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                validLength += 4 + length;
+                Record record = decode(new DataInputStream(new ByteArrayInputStream(data)));
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        } catch (IOException ex) {
+            //a torn last record after a crash, keep what was read
+            Log.w(TAG, "Could not read all of " + file, ex);
+        }
+        return validLength;
+    }
+}
@@ -22,18 +22,24 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import cz.mamstylcendy.cdautologin.core.LoginTimings;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String PK_HIBERNATION_DIALOG_SUPPRESS = "hibernation_dialog_suppress";
 
     private TextView tvStatus;
+    private TextView tvTimings;
+    private TextView tvWakeups;
     private Button btnConnect;
 
     private ActivityResultLauncher<String> mNotificationPermissionLauncher;
@@ -53,13 +59,17 @@ public class MainActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_main);
         tvStatus = findViewById(R.id.tvStatus);
+        tvTimings = findViewById(R.id.tvTimings);
+        tvWakeups = findViewById(R.id.tvWakeups);
         btnConnect = findViewById(R.id.btnConnect);
+        tvStatus.setOnLongClickListener(this::toggleTraceCapture);
 
         mNotificationPermissionLauncher = registerForActivityResult(new ActivityResultContracts.RequestPermission(), granted -> {
 
         });
 
         BackgroundLoginWorker.registerIfNotPresent(this);
+        FastLoginTrigger.registerIfEnabled(this);
 
         BackgroundLoginWorker.getWorkInfo(this).observe(this, this::updateWorkStatus);
 
@@ -130,7 +140,14 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showWakeups();
+    }
+
     private void updateWorkStatus(WorkInfo workInfo) {
+        showWakeups();
         if (workInfo == null || workInfo.getState().isFinished()) {
             btnConnect.setEnabled(true);
             if (workInfo != null && mShownWorkUUID != null && mShownWorkUUID.equals(workInfo.getId())) {
@@ -139,10 +156,13 @@ public class MainActivity extends AppCompatActivity {
                 } else {
                     tvStatus.setText(getErrorText(BackgroundLoginWorker.getError(workInfo)));
                 }
+                showTimings(BackgroundLoginWorker.getTimings(workInfo));
             } else {
                 tvStatus.setText(R.string.status_ready);
+                showTimings(null);
             }
         } else {
+            showTimings(null);
             BackgroundLoginWorker.ProgressCode progress = BackgroundLoginWorker.getProgress(workInfo);
             if (progress != BackgroundLoginWorker.ProgressCode.NOT_STARTED) {
                 mShownWorkUUID = workInfo.getId();
@@ -152,6 +172,18 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private void showTimings(LoginTimings timings) {
+        String text = timings != null ? timings.describe() : "";
+        tvTimings.setText(text);
+        tvTimings.setVisibility(text.isEmpty() ? View.GONE : View.VISIBLE);
+    }
+
+    private void showWakeups() {
+        WakeupBudget budget = WakeupBudget.getInstance(this);
+        tvWakeups.setText(getString(R.string.wakeup_stats, budget.getWakeupsToday(),
+                TimeUnit.MILLISECONDS.toSeconds(budget.getRadioMillisToday())));
+    }
+
     private @StringRes int getErrorText(BackgroundLoginWorker.ErrorCode error) {
         switch (error) {
             case NO_CAPTIVE_PORTAL:
@@ -179,6 +211,13 @@ public class MainActivity extends AppCompatActivity {
         return R.string.status_connecting;
     }
 
+    private boolean toggleTraceCapture(View view) {
+        boolean enabled = !TraceCapture.isEnabled(this);
+        TraceCapture.setEnabled(this, enabled);
+        Toast.makeText(this, enabled ? R.string.trace_capture_enabled : R.string.trace_capture_disabled, Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
     public void btnConnectClicked(View view) {
         view.setEnabled(false);
         tvStatus.setText(getProgressText(null));
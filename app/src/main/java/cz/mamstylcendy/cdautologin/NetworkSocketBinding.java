@@ -0,0 +1,40 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.net.Network;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+import cz.mamstylcendy.cdautologin.core.SocketBinding;
+
+import javax.net.SocketFactory;
+
+/**
+ * Binds sockets to a single {@link Network}, without touching the process-wide default like
+ * {@link android.net.ConnectivityManager#bindProcessToNetwork(Network)} does.
+ */
+public class NetworkSocketBinding implements SocketBinding {
+
+    private final Network mNetwork;
+
+    private NetworkSocketBinding(Network network) {
+        mNetwork = network;
+    }
+
+    public static SocketBinding of(Network network) {
+        if (network == null) {
+            return SocketBinding.UNBOUND;
+        }
+        return new NetworkSocketBinding(network);
+    }
+
+    @Override
+    public SocketFactory getSocketFactory() {
+        return mNetwork.getSocketFactory();
+    }
+
+    @Override
+    public void bindDatagramSocket(DatagramSocket socket) throws IOException {
+        mNetwork.bindSocket(socket);
+    }
+}
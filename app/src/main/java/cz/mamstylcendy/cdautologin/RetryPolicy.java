@@ -0,0 +1,75 @@
+package cz.mamstylcendy.cdautologin;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how a failed login attempt is retried.
+ * <p>
+ * Signal in stations comes and goes within seconds, so failures are first retried within the same
+ * worker run, with exponential backoff and jitter. Only when the attempts or the time budget of
+ * the run are spent is the retry left to WorkManager, which cannot go below minutes.
+ */
+public class RetryPolicy {
+
+    //total time a worker run may spend on login attempts, the in-worker retries included
+    public static final long RETRY_BUDGET_MS = 45000;
+    //longest regular delay of the WorkManager retry, see getRescheduleMinutes
+    public static final int MAX_RESCHEDULE_MINUTES = 5;
+
+    private static final RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0);
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+
+    private RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    public static RetryPolicy forError(BackgroundLoginWorker.ErrorCode errorCode) {
+        switch (errorCode) {
+            case CAPTIVE_DETECTION_FAILED:
+                //mostly network errors, these tend to go away quickly
+                return new RetryPolicy(5, 1000, 10000);
+            case CAPTIVE_LOGIN_FAILED:
+                //give the portal a moment before asking again
+                return new RetryPolicy(3, 2000, 10000);
+            default:
+                //wrong network or none at all, retrying right away will not change a thing
+                return NO_RETRY;
+        }
+    }
+
+    /**
+     * @param attempt   Number of attempts made so far, starting at 1.
+     * @param elapsedMs Time spent in the worker run so far.
+     * @return Delay before the next in-worker attempt, or -1 if the attempt should not be retried
+     * within this worker run.
+     */
+    public long getRetryDelay(int attempt, long elapsedMs) {
+        if (attempt >= mMaxAttempts) {
+            return -1;
+        }
+        long backoff = Math.min(mMaxDelayMs, mBaseDelayMs << Math.min(attempt - 1, 16));
+        //equal jitter, so that a fleet of tablets on one train does not hammer the portal in sync
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        if (elapsedMs + delay > RETRY_BUDGET_MS) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * @return Delay before the WorkManager retry, once in-worker retries are exhausted.
+     */
+    public static int getRescheduleMinutes(Throwable th) {
+        if (th instanceof SocketTimeoutException) {
+            //probably weak signal
+            return 1;
+        }
+        return MAX_RESCHEDULE_MINUTES;
+    }
+}
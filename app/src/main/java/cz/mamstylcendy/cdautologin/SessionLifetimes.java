@@ -0,0 +1,194 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cz.mamstylcendy.cdautologin.core.DataFiles;
+
+/**
+ * Learns how long the portal sessions last on each network, so that the session can be renewed
+ * before it runs out instead of after the traffic has already stopped.
+ * <p>
+ * A sample is the time from a successful login to the network being found captive again. Samples
+ * are taken by the login that follows, so a network left and rejoined later gives a sample that is
+ * too long, which is why the lower quartile of the recent samples is used rather than their mean.
+ */
+public class SessionLifetimes {
+
+    private static final String TAG = SessionLifetimes.class.getSimpleName();
+
+    private static final String FILE_NAME = "session_lifetimes.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_NETWORKS = 16;
+    private static final int MAX_SAMPLES = 8;
+    //a single expiry may well have been the router rebooting
+    private static final int MIN_SAMPLES = 2;
+
+    //shorter samples are failed logins retried, longer ones are days between trips
+    private static final long MIN_LIFETIME_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_LIFETIME_MS = TimeUnit.HOURS.toMillis(24);
+
+    private static SessionLifetimes sInstance;
+
+    private final File mFile;
+    private LinkedHashMap<String, Sessions> mNetworks;
+
+    private static class Sessions {
+        //0 if the last session was already found to be over
+        long lastLoginTime;
+        //oldest first
+        long[] samples = new long[0];
+
+        void addSample(long sample) {
+            if (samples.length < MAX_SAMPLES) {
+                samples = Arrays.copyOf(samples, samples.length + 1);
+            } else {
+                System.arraycopy(samples, 1, samples, 0, samples.length - 1);
+            }
+            samples[samples.length - 1] = sample;
+        }
+    }
+
+    public SessionLifetimes(File dir) {
+        mFile = new File(dir, FILE_NAME);
+    }
+
+    public static synchronized SessionLifetimes getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SessionLifetimes(context.getApplicationContext().getNoBackupFilesDir());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records a login that started a session, or renewed it.
+     */
+    public synchronized void recordLogin(String networkKey, long time) {
+        if (networkKey == null) {
+            return;
+        }
+        Sessions sessions = getNetworks().get(networkKey);
+        if (sessions == null) {
+            sessions = new Sessions();
+            getNetworks().put(networkKey, sessions);
+        }
+        sessions.lastLoginTime = time;
+        save();
+    }
+
+    /**
+     * Records that the session of the last login has run out. Only the first call after a login
+     * counts.
+     *
+     * @param time When the network was found captive again.
+     */
+    public synchronized void recordExpiry(String networkKey, long time) {
+        Sessions sessions = networkKey != null ? getNetworks().get(networkKey) : null;
+        if (sessions == null || sessions.lastLoginTime == 0) {
+            return;
+        }
+        long sample = time - sessions.lastLoginTime;
+        sessions.lastLoginTime = 0;
+        if (sample >= MIN_LIFETIME_MS && sample <= MAX_LIFETIME_MS) {
+            sessions.addSample(sample);
+            Log.i(TAG, "Session on " + networkKey + " lasted " + TimeUnit.MILLISECONDS.toMinutes(sample) + " min");
+        }
+        save();
+    }
+
+    /**
+     * @return Wall clock time of the last login that started or renewed a session which is not
+     * known to be over, or 0 if there is none.
+     */
+    public synchronized long getLastLoginTime(String networkKey) {
+        Sessions sessions = networkKey != null ? getNetworks().get(networkKey) : null;
+        return sessions != null ? sessions.lastLoginTime : 0;
+    }
+
+    /**
+     * @return How long a session on the network is expected to last at the least, or -1 if not
+     * enough sessions were seen to tell.
+     */
+    public synchronized long getExpectedLifetime(String networkKey) {
+        Sessions sessions = networkKey != null ? getNetworks().get(networkKey) : null;
+        if (sessions == null || sessions.samples.length < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = sessions.samples.clone();
+        Arrays.sort(sorted);
+        return sorted[(sorted.length - 1) / 4];
+    }
+
+    private Map<String, Sessions> getNetworks() {
+        if (mNetworks == null) {
+            mNetworks = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Sessions> eldest) {
+                    return size() > MAX_NETWORKS;
+                }
+            };
+            try {
+                load();
+            } catch (IOException ex) {
+                //only costs renewing sessions in time until they are learned again
+                Log.w(TAG, "Could not load session lifetimes", ex);
+                mNetworks.clear();
+            }
+        }
+        return mNetworks;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = DataFiles.openInput(mFile)) {
+            if (in == null) {
+                //nothing learned yet
+                return;
+            }
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Sessions sessions = new Sessions();
+                sessions.lastLoginTime = in.readLong();
+                int sampleCount = in.readUnsignedByte();
+                if (sampleCount > MAX_SAMPLES) {
+                    throw new IOException("Too many samples: " + sampleCount);
+                }
+                sessions.samples = new long[sampleCount];
+                for (int j = 0; j < sampleCount; j++) {
+                    sessions.samples[j] = in.readLong();
+                }
+                mNetworks.put(key, sessions);
+            }
+        }
+    }
+
+    private void save() {
+        try {
+            DataFiles.replace(mFile, out -> {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(mNetworks.size());
+                for (Map.Entry<String, Sessions> entry : mNetworks.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().lastLoginTime);
+                    out.writeByte(entry.getValue().samples.length);
+                    for (long sample : entry.getValue().samples) {
+                        out.writeLong(sample);
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            Log.w(TAG, "Could not save session lifetimes", ex);
+        }
+    }
+}
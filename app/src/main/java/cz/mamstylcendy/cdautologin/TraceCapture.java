@@ -0,0 +1,70 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+
+import cz.mamstylcendy.cdautologin.core.LoginTrace;
+import cz.mamstylcendy.cdautologin.core.TraceFile;
+
+/**
+ * Decides where login trace events go. Release builds drop them unless the user opts in to the
+ * capture, which writes them to a bounded file in the external app storage instead of logcat, so
+ * that a failed login on a train can be pulled off the device afterwards.
+ */
+public class TraceCapture {
+
+    private static final String TAG = TraceCapture.class.getSimpleName();
+
+    private static final String PK_TRACE_CAPTURE_ENABLED = "trace_capture_enabled";
+    private static final String FILE_NAME = "login_trace.txt";
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+
+    private static final LoginTrace.Sink LOGCAT_SINK = (tag, message) -> Log.d(tag, message);
+
+    //null until installed
+    private static Boolean sCapturing;
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
+    }
+
+    public static boolean isEnabled(Context context) {
+        return getPreferences(context).getBoolean(PK_TRACE_CAPTURE_ENABLED, false);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        getPreferences(context).edit()
+                .putBoolean(PK_TRACE_CAPTURE_ENABLED, enabled)
+                .apply();
+        install(context, enabled);
+    }
+
+    public static void install(Context context) {
+        install(context, isEnabled(context));
+    }
+
+    private static synchronized void install(Context context, boolean capture) {
+        if (sCapturing != null && sCapturing == capture) {
+            return;
+        }
+        sCapturing = capture;
+        if (capture) {
+            TraceFile traceFile = new TraceFile(getFile(context), MAX_FILE_BYTES);
+            Log.i(TAG, "Capturing login trace to " + traceFile.getFile());
+            LoginTrace.setSink(traceFile);
+        } else {
+            LoginTrace.setSink(BuildConfig.DEBUG ? LOGCAT_SINK : null);
+        }
+    }
+
+    /**
+     * @return The capture file, readable over adb without root.
+     */
+    public static File getFile(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        return new File(dir != null ? dir : context.getNoBackupFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,264 @@
+package cz.mamstylcendy.cdautologin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the login worker wakes up next, and keeps count of what the wakeups cost.
+ * <p>
+ * The worker reschedules itself after every run, for as long as the system sees a captive Wi-Fi
+ * network. That is right on a train, but on a hotel or airport network the app cannot log in to,
+ * or while the system is wrong about the network being captive, the same answer would come every
+ * few minutes for hours. Those outcomes back off exponentially on that network, and the next run
+ * is delayed until the backoff runs out. A captive network turning up in the meantime, which may
+ * well be a train, is left to {@link CaptiveNetworkReceiver}, which ignores the network backing
+ * off, see {@link #isBackingOff(long)}. On top of that, at most {@link #MAX_WAKEUPS_PER_HOUR}
+ * self-scheduled runs fit into any hour, whatever the outcome. Logins triggered by the user or by
+ * a captive network appearing do not count against the budget.
+ */
+public class WakeupBudget {
+
+    private static final String TAG = WakeupBudget.class.getSimpleName();
+
+    private static final String PK_WAKEUP_TIMES = "wakeup_budget_times";
+    private static final String PK_BACKOFF_NETWORK = "wakeup_backoff_network";
+    private static final String PK_BACKOFF_NETWORK_HANDLE = "wakeup_backoff_network_handle";
+    private static final String PK_BACKOFF_ERROR = "wakeup_backoff_error";
+    private static final String PK_BACKOFF_LEVEL = "wakeup_backoff_level";
+    private static final String PK_BACKOFF_UNTIL = "wakeup_backoff_until";
+    private static final String PK_STATS_DAY = "wakeup_stats_day";
+    private static final String PK_STATS_WAKEUPS = "wakeup_stats_wakeups";
+    private static final String PK_STATS_RADIO_MS = "wakeup_stats_radio_ms";
+
+    //one every 10 minutes on average, a network failing every 1-5 minutes runs into it
+    private static final int MAX_WAKEUPS_PER_HOUR = 6;
+    private static final long BUDGET_WINDOW_MS = TimeUnit.HOURS.toMillis(1);
+
+    //the same network will not become CD Wi-Fi, a train is a network of its own
+    private static final long NOT_CD_WIFI_BASE_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long NOT_CD_WIFI_MAX_MS = TimeUnit.HOURS.toMillis(4);
+    //the system still thinks the network is captive, its own check will usually catch up
+    //not less than the shortest interval of periodic work, which the re-checks are
+    private static final long NO_PORTAL_BASE_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long NO_PORTAL_MAX_MS = TimeUnit.HOURS.toMillis(2);
+    private static final int MAX_BACKOFF_LEVEL = 8;
+
+    private static WakeupBudget sInstance;
+
+    private final SharedPreferences mPreferences;
+
+    private WakeupBudget(Context context) {
+        mPreferences = context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
+    }
+
+    public static synchronized WakeupBudget getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WakeupBudget(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records a finished worker run.
+     *
+     * @param selfScheduled True if the run was one scheduled by {@link #scheduleNext}, which
+     *                      counts against the budget.
+     * @param radioMillis   How long the run kept the network busy.
+     */
+    public synchronized void recordRun(boolean selfScheduled, long startTime, long radioMillis) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        if (selfScheduled) {
+            List<Long> times = getWakeupTimes(startTime);
+            times.add(startTime);
+            editor.putString(PK_WAKEUP_TIMES, joinTimes(times));
+        }
+        long day = getDay(System.currentTimeMillis());
+        int wakeups = 0;
+        long radioMs = 0;
+        if (mPreferences.getLong(PK_STATS_DAY, 0) == day) {
+            wakeups = mPreferences.getInt(PK_STATS_WAKEUPS, 0);
+            radioMs = mPreferences.getLong(PK_STATS_RADIO_MS, 0);
+        }
+        editor.putLong(PK_STATS_DAY, day)
+                .putInt(PK_STATS_WAKEUPS, wakeups + 1)
+                .putLong(PK_STATS_RADIO_MS, radioMs + radioMillis)
+                .apply();
+    }
+
+    /**
+     * @param error         Outcome of the run, null on success.
+     * @param networkKey    Network the run was on, or null if unknown.
+     * @param networkHandle {@link android.net.Network#getNetworkHandle()} of the network, or 0 if
+     *                      unknown.
+     * @param th            What caused the failure, if anything.
+     * @return Delay of the next run in milliseconds. While backing off, see {@link #isBackingOff()},
+     * it is the rest of the backoff.
+     */
+    public synchronized long scheduleNext(BackgroundLoginWorker.ErrorCode error, String networkKey, long networkHandle, Throwable th) {
+        long delay;
+        if (error == BackgroundLoginWorker.ErrorCode.CAPTIVE_NOT_CD_WIFI) {
+            startBackoff(error, networkKey, networkHandle, NOT_CD_WIFI_BASE_MS, NOT_CD_WIFI_MAX_MS);
+        } else if (error == BackgroundLoginWorker.ErrorCode.NO_CAPTIVE_PORTAL) {
+            startBackoff(error, networkKey, networkHandle, NO_PORTAL_BASE_MS, NO_PORTAL_MAX_MS);
+        } else {
+            resetBackoff();
+        }
+        long now = System.currentTimeMillis();
+        if (error == null) {
+            //give 1 minute to refresh captive portal information
+            delay = TimeUnit.MINUTES.toMillis(1);
+        } else if (isBackingOff()) {
+            delay = mPreferences.getLong(PK_BACKOFF_UNTIL, 0) - now;
+        } else {
+            delay = TimeUnit.MINUTES.toMillis(RetryPolicy.getRescheduleMinutes(th));
+        }
+
+        long budgeted = applyBudget(now, delay);
+        if (budgeted != delay) {
+            Log.i(TAG, "Wakeup budget spent, next run in " + TimeUnit.MILLISECONDS.toMinutes(budgeted) + " min instead of "
+                    + TimeUnit.MILLISECONDS.toMinutes(delay));
+        }
+        return budgeted;
+    }
+
+    /**
+     * @return The outcome that the network is backing off from, or null if a run should go ahead
+     * with the login.
+     */
+    public synchronized BackgroundLoginWorker.ErrorCode getBackoffError(String networkKey) {
+        if (networkKey == null || !isBackingOff() || !networkKey.equals(mPreferences.getString(PK_BACKOFF_NETWORK, null))) {
+            return null;
+        }
+        return BackgroundLoginWorker.ErrorCode.valueOf(mPreferences.getString(PK_BACKOFF_ERROR, null));
+    }
+
+    /**
+     * @return True if the last self-scheduled run was delayed by a backoff that is not over yet.
+     */
+    public synchronized boolean isBackingOff() {
+        if (!mPreferences.contains(PK_BACKOFF_ERROR)) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long until = mPreferences.getLong(PK_BACKOFF_UNTIL, 0);
+        //also gives up on a backoff from a clock set back
+        return now < until && until - now <= NOT_CD_WIFI_MAX_MS;
+    }
+
+    /**
+     * Tells the network backing off apart from a captive network that turned up since, without
+     * having to identify it.
+     *
+     * @param networkHandle {@link android.net.Network#getNetworkHandle()} of the network.
+     */
+    public synchronized boolean isBackingOff(long networkHandle) {
+        return isBackingOff() && networkHandle != 0 && networkHandle == mPreferences.getLong(PK_BACKOFF_NETWORK_HANDLE, 0);
+    }
+
+    private long applyBudget(long now, long delay) {
+        List<Long> times = getWakeupTimes(now);
+        long runTime = now + delay;
+        //oldest first, the run fits once enough of them have left the window before it
+        int excess = times.size() - MAX_WAKEUPS_PER_HOUR + 1;
+        if (excess > 0) {
+            runTime = Math.max(runTime, times.get(excess - 1) + BUDGET_WINDOW_MS);
+        }
+        return runTime - now;
+    }
+
+    private void startBackoff(BackgroundLoginWorker.ErrorCode error, String networkKey, long networkHandle, long baseMs, long maxMs) {
+        long now = System.currentTimeMillis();
+        int level = 0;
+        if (error.name().equals(mPreferences.getString(PK_BACKOFF_ERROR, null))
+                && Objects.equals(networkKey, mPreferences.getString(PK_BACKOFF_NETWORK, null))) {
+            level = mPreferences.getInt(PK_BACKOFF_LEVEL, 0);
+            if (now >= mPreferences.getLong(PK_BACKOFF_UNTIL, 0)) {
+                level = Math.min(level + 1, MAX_BACKOFF_LEVEL);
+            } else {
+                //a login asked for by the user while backing off, the backoff stands as it is
+                return;
+            }
+        }
+        long backoff = Math.min(maxMs, baseMs << level);
+        Log.i(TAG, "Backing off from " + error + " for " + TimeUnit.MILLISECONDS.toMinutes(backoff) + " min");
+        mPreferences.edit()
+                .putString(PK_BACKOFF_ERROR, error.name())
+                .putString(PK_BACKOFF_NETWORK, networkKey)
+                .putLong(PK_BACKOFF_NETWORK_HANDLE, networkHandle)
+                .putInt(PK_BACKOFF_LEVEL, level)
+                .putLong(PK_BACKOFF_UNTIL, now + backoff)
+                .apply();
+    }
+
+    private void resetBackoff() {
+        if (mPreferences.contains(PK_BACKOFF_ERROR)) {
+            mPreferences.edit()
+                    .remove(PK_BACKOFF_ERROR)
+                    .remove(PK_BACKOFF_NETWORK)
+                    .remove(PK_BACKOFF_NETWORK_HANDLE)
+                    .remove(PK_BACKOFF_LEVEL)
+                    .remove(PK_BACKOFF_UNTIL)
+                    .apply();
+        }
+    }
+
+    /**
+     * @return Times of the self-scheduled runs within the budget window before the time, oldest
+     * first.
+     */
+    private List<Long> getWakeupTimes(long now) {
+        List<Long> times = new ArrayList<>();
+        String stored = mPreferences.getString(PK_WAKEUP_TIMES, "");
+        for (String time : stored.split(",")) {
+            if (time.isEmpty()) {
+                continue;
+            }
+            long value = Long.parseLong(time);
+            //also drops times from a clock set back
+            if (value > now - BUDGET_WINDOW_MS && value <= now) {
+                times.add(value);
+            }
+        }
+        return times;
+    }
+
+    private static String joinTimes(List<Long> times) {
+        StringBuilder sb = new StringBuilder();
+        for (long time : times) {
+            if (sb.length() != 0) {
+                sb.append(',');
+            }
+            sb.append(time);
+        }
+        return sb.toString();
+    }
+
+    private static long getDay(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.YEAR) * 1000L + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    public synchronized int getWakeupsToday() {
+        return mPreferences.getLong(PK_STATS_DAY, 0) == getDay(System.currentTimeMillis())
+                ? mPreferences.getInt(PK_STATS_WAKEUPS, 0) : 0;
+    }
+
+    public synchronized long getRadioMillisToday() {
+        return mPreferences.getLong(PK_STATS_DAY, 0) == getDay(System.currentTimeMillis())
+                ? mPreferences.getLong(PK_STATS_RADIO_MS, 0) : 0;
+    }
+
+    public String describeToday() {
+        return String.format(Locale.ROOT, "%d wakeups, radio active %d s", getWakeupsToday(),
+                TimeUnit.MILLISECONDS.toSeconds(getRadioMillisToday()));
+    }
+}
@@ -0,0 +1,148 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TSIG;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling of a DNS answer once it has arrived: validation by dnsjava, address extraction and
+ * the interleaving of both families. The network is replaced by canned answers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DNSAnswerBenchmark {
+
+    private static final String HOSTNAME = "cdwifi.cz";
+
+    private Resolver mResolver;
+    private CustomDNSResolver.LookupResult mAResult;
+    private CustomDNSResolver.LookupResult mAAAAResult;
+
+    @Setup
+    public void setUp() throws IOException {
+        mResolver = new CannedResolver(
+                InetAddress.getByName("10.0.0.1"),
+                InetAddress.getByName("10.0.0.2"),
+                InetAddress.getByName("fd00::1"),
+                InetAddress.getByName("fd00::2")
+        );
+        mAResult = CustomDNSResolver.runLookup(mResolver, HOSTNAME, Type.A);
+        mAAAAResult = CustomDNSResolver.runLookup(mResolver, HOSTNAME, Type.AAAA);
+    }
+
+    @Benchmark
+    public CustomDNSResolver.LookupResult lookupA() throws UnknownHostException {
+        return CustomDNSResolver.runLookup(mResolver, HOSTNAME, Type.A);
+    }
+
+    @Benchmark
+    public CustomDNSResolver.LookupResult lookupAAAA() throws UnknownHostException {
+        return CustomDNSResolver.runLookup(mResolver, HOSTNAME, Type.AAAA);
+    }
+
+    @Benchmark
+    public CustomDNSResolver.LookupResult mergeFamilies() {
+        return CustomDNSResolver.LookupResult.merge(mAResult, mAAAAResult, true);
+    }
+
+    /**
+     * Answers every query with the addresses of the requested family.
+     */
+    private static class CannedResolver implements Resolver {
+
+        private final List<InetAddress> mAddresses;
+
+        CannedResolver(InetAddress... addresses) {
+            mAddresses = List.of(addresses);
+        }
+
+        @Override
+        public Message send(Message query) {
+            Record question = query.getQuestion();
+            Name name = question.getName();
+            Message response = new Message(query.getHeader().getID());
+            response.getHeader().setFlag(Flags.QR);
+            response.getHeader().setFlag(Flags.RD);
+            response.getHeader().setFlag(Flags.RA);
+            response.getHeader().setRcode(Rcode.NOERROR);
+            response.addRecord(question, Section.QUESTION);
+            for (InetAddress address : mAddresses) {
+                if (question.getType() == Type.A && address.getAddress().length == 4) {
+                    response.addRecord(new ARecord(name, DClass.IN, 300, address), Section.ANSWER);
+                } else if (question.getType() == Type.AAAA && address.getAddress().length == 16) {
+                    response.addRecord(new AAAARecord(name, DClass.IN, 300, address), Section.ANSWER);
+                }
+            }
+            return response;
+        }
+
+        @Override
+        public Object sendAsync(Message query, ResolverListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setPort(int port) {
+
+        }
+
+        @Override
+        public void setTCP(boolean flag) {
+
+        }
+
+        @Override
+        public void setIgnoreTruncation(boolean flag) {
+
+        }
+
+        @Override
+        public void setEDNS(int level) {
+
+        }
+
+        @Override
+        public void setEDNS(int level, int payloadSize, int flags, List options) {
+
+        }
+
+        @Override
+        public void setTSIGKey(TSIG key) {
+
+        }
+
+        @Override
+        public void setTimeout(int secs, int msecs) {
+
+        }
+
+        @Override
+        public void setTimeout(int secs) {
+
+        }
+    }
+}
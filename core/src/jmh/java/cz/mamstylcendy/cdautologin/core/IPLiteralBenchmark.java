@@ -0,0 +1,28 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IP literal check runs on every lookup before anything else, cache hits included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IPLiteralBenchmark {
+
+    @Param({"cdwifi.cz", "connectivitycheck.gstatic.com", "10.0.0.1", "fe80::1"})
+    public String hostname;
+
+    @Benchmark
+    public boolean isIPAddress() {
+        return CustomDNSResolver.isIPAddress(hostname);
+    }
+}
@@ -0,0 +1,55 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+/**
+ * Form extraction from the gateway page. The legacy page stops the streaming parser at the form,
+ * the Passengera page is read to its end, or to the limit of the parser if longer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LegacyLoginFormParserBenchmark {
+
+    private static final MediaType HTML = MediaType.get("text/html; charset=utf-8");
+
+    @Param({"gateway_legacy.html", "gateway_passengera.html"})
+    public String page;
+
+    private byte[] mPage;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = LegacyLoginFormParserBenchmark.class.getResourceAsStream("/" + page)) {
+            mPage = in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public LegacyLoginForm parse() throws IOException {
+        try (ResponseBody body = ResponseBody.create(HTML, mPage)) {
+            return new LegacyLoginFormParser().parse(body);
+        }
+    }
+
+    @Benchmark
+    public CDCaptiveType classifyPortalPage() throws IOException {
+        try (ResponseBody body = ResponseBody.create(HTML, mPage)) {
+            return PortalClassifier.classifyPortalPage(new LegacyLoginFormParser().parse(body));
+        }
+    }
+}
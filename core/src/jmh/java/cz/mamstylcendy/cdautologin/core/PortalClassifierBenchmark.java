@@ -0,0 +1,47 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PortalClassifierBenchmark {
+
+    @Param({"no_portal", "cdwifi", "foreign"})
+    public String scenario;
+
+    private int mCode;
+    private String mLocation;
+
+    @Setup
+    public void setUp() {
+        switch (scenario) {
+            case "no_portal":
+                mCode = 204;
+                mLocation = null;
+                break;
+            case "cdwifi":
+                mCode = 302;
+                mLocation = "http://cdwifi.cz/portal/?url=http%3A%2F%2Fconnectivitycheck.gstatic.com%2Fgenerate_204";
+                break;
+            default:
+                mCode = 302;
+                mLocation = "https://login.hotspot.example.com/captive?mac=00:11:22:33:44:55";
+                break;
+        }
+    }
+
+    @Benchmark
+    public CDCaptiveType classifyConnectivityProbe() {
+        return PortalClassifier.classifyConnectivityProbe(mCode, mLocation, PortalRegistry.getDefault());
+    }
+}
@@ -0,0 +1,86 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch of a connectivity test redirect to its portal handler, against a linear scan over the
+ * same host suffixes, as the portal checks used to be done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PortalDispatchBenchmark {
+
+    @Param({"10", "200", "1000"})
+    public int patterns;
+
+    //first and last pattern added, and a host that none matches
+    @Param({"first", "last", "miss"})
+    public String target;
+
+    private String[] mSuffixes;
+    private HostSuffixMatcher<Integer> mMatcher;
+    private String mHost;
+    private String mLocation;
+
+    @Setup
+    public void setUp() {
+        mSuffixes = new String[patterns];
+        HostSuffixMatcher.Builder<Integer> builder = new HostSuffixMatcher.Builder<>();
+        for (int i = 0; i < patterns; i++) {
+            //under a shared parent domain, so the hosts only differ in the last label the trie reaches
+            mSuffixes[i] = String.format(Locale.ROOT, "portal%d.hotspot-operator.com", i);
+            builder.put(mSuffixes[i], i);
+        }
+        mMatcher = builder.build();
+
+        String host;
+        switch (target) {
+            case "first":
+                host = "login." + mSuffixes[0];
+                break;
+            case "last":
+                host = "login." + mSuffixes[patterns - 1];
+                break;
+            default:
+                host = "login.portal.other-operator.com";
+                break;
+        }
+        mHost = host;
+        mLocation = "http://" + host + "/captive/?url=http%3A%2F%2Fconnectivitycheck.gstatic.com%2Fgenerate_204";
+    }
+
+    @Benchmark
+    public Integer trie() {
+        return mMatcher.match(mHost);
+    }
+
+    //includes finding the host in the Location, as done by PortalRegistry
+    @Benchmark
+    public Integer trieUrl() {
+        return mMatcher.matchUrl(mLocation);
+    }
+
+    @Benchmark
+    public Integer linearScan() {
+        String host = mHost;
+        for (int i = 0; i < mSuffixes.length; i++) {
+            String suffix = mSuffixes[i];
+            if (host.endsWith(suffix)
+                    && (host.length() == suffix.length() || host.charAt(host.length() - suffix.length() - 1) == '.')) {
+                return i;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * Connect times per IP address family, shared by all connections in the process. The family that
+ * has been connecting faster gets the head start in the next connection race.
+ */
+public class AddressFamilyStats {
+
+    private static final AddressFamilyStats INSTANCE = new AddressFamilyStats();
+
+    private final Family mIPv4 = new Family();
+    private final Family mIPv6 = new Family();
+
+    public static AddressFamilyStats getInstance() {
+        return INSTANCE;
+    }
+
+    private Family getFamily(InetAddress address) {
+        return address instanceof Inet6Address ? mIPv6 : mIPv4;
+    }
+
+    public synchronized void recordConnect(InetAddress address, long connectTimeMs) {
+        Family family = getFamily(address);
+        if (family.successCount == 0) {
+            family.averageConnectTimeMs = connectTimeMs;
+        } else {
+            family.averageConnectTimeMs = (family.averageConnectTimeMs * 3 + connectTimeMs) / 4;
+        }
+        family.successCount++;
+    }
+
+    public synchronized void recordFailure(InetAddress address) {
+        getFamily(address).failureCount++;
+    }
+
+    /**
+     * @return True if IPv6 should be tried first. That is the RFC 8305 default, until IPv4 proves
+     * to be faster or IPv6 keeps failing.
+     */
+    public synchronized boolean preferIPv6() {
+        if (mIPv6.successCount == 0) {
+            return mIPv6.failureCount == 0 || mIPv4.successCount == 0;
+        }
+        if (mIPv4.successCount == 0) {
+            return true;
+        }
+        return mIPv6.averageConnectTimeMs <= mIPv4.averageConnectTimeMs;
+    }
+
+    public synchronized String describe() {
+        return "IPv4 " + mIPv4.describe() + ", IPv6 " + mIPv6.describe();
+    }
+
+    private static class Family {
+        long averageConnectTimeMs;
+        int successCount;
+        int failureCount;
+
+        String describe() {
+            return "avg " + averageConnectTimeMs + " ms (" + successCount + " ok, " + failureCount + " failed)";
+        }
+    }
+}
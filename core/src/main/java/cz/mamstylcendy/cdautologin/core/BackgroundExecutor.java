@@ -0,0 +1,25 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The thread pool shared by all background work of the app, from DNS queries to UI callbacks.
+ */
+public final class BackgroundExecutor {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private BackgroundExecutor() {
+
+    }
+
+    public static void run(Runnable task) {
+        executor.execute(task);
+    }
+
+    public static Executor get() {
+        return executor;
+    }
+}
@@ -0,0 +1,273 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TSIG;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal replacement for {@link SimpleResolver} whose sockets go through a {@link SocketBinding}.
+ * dnsjava creates its sockets internally, so there is no other way to pin them to a network.
+ */
+public class BoundDNSResolver implements Resolver {
+
+    static final int DEFAULT_TIMEOUT_MS = 10000;
+    private static final int MAX_MESSAGE_SIZE = 65535;
+    //same as SimpleResolver
+    private static final int DEFAULT_EDNS_PAYLOAD_SIZE = 1280;
+
+    private final InetAddress mAddress;
+    private final SocketBinding mBinding;
+
+    private int mPort = SimpleResolver.DEFAULT_PORT;
+    private boolean mUseTCP = false;
+    private boolean mIgnoreTruncation = false;
+    private int mTimeoutMs = DEFAULT_TIMEOUT_MS;
+    private OPTRecord mQueryOPT;
+    private TSIG mTSIG;
+
+    //sockets of the queries in flight, an interrupt does not stop a thread waiting in receive()
+    private final List<Closeable> mOpenSockets = new ArrayList<>();
+    //guarded by mOpenSockets
+    private boolean mCancelled;
+
+    public BoundDNSResolver(InetAddress address, SocketBinding binding) {
+        mAddress = address;
+        mBinding = binding;
+    }
+
+    @Override
+    public void setPort(int port) {
+        mPort = port;
+    }
+
+    @Override
+    public void setTCP(boolean flag) {
+        mUseTCP = flag;
+    }
+
+    @Override
+    public void setIgnoreTruncation(boolean flag) {
+        mIgnoreTruncation = flag;
+    }
+
+    @Override
+    public void setEDNS(int level) {
+        setEDNS(level, 0, 0, null);
+    }
+
+    /**
+     * Same as in {@link SimpleResolver}, level -1 turns EDNS off again.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void setEDNS(int level, int payloadSize, int flags, List options) {
+        if (level != 0 && level != -1) {
+            throw new IllegalArgumentException("Invalid EDNS level - must be 0 or -1");
+        }
+        if (payloadSize == 0) {
+            payloadSize = DEFAULT_EDNS_PAYLOAD_SIZE;
+        }
+        mQueryOPT = level == 0 ? new OPTRecord(payloadSize, 0, level, flags, options) : null;
+    }
+
+    /**
+     * Queries are signed with the key, and responses that do not verify are rejected.
+     */
+    @Override
+    public void setTSIGKey(TSIG key) {
+        mTSIG = key;
+    }
+
+    @Override
+    public void setTimeout(int secs, int msecs) {
+        mTimeoutMs = secs * 1000 + msecs;
+    }
+
+    @Override
+    public void setTimeout(int secs) {
+        setTimeout(secs, 0);
+    }
+
+    @Override
+    public Message send(Message query) throws IOException {
+        if (mQueryOPT != null || mTSIG != null) {
+            //the caller's message stays as it was
+            query = (Message) query.clone();
+            if (mQueryOPT != null && query.getOPT() == null) {
+                query.addRecord(mQueryOPT, Section.ADDITIONAL);
+            }
+            if (mTSIG != null) {
+                mTSIG.apply(query, null);
+            }
+        }
+        byte[] queryData = query.toWire(MAX_MESSAGE_SIZE);
+        int id = query.getHeader().getID();
+        if (mUseTCP) {
+            return sendTCP(query, queryData, id);
+        }
+        Message response = sendUDP(query, queryData, id);
+        if (!mIgnoreTruncation && response.getHeader().getFlag(Flags.TC)) {
+            response = sendTCP(query, queryData, id);
+        }
+        return response;
+    }
+
+    /**
+     * Aborts the queries in flight by closing their sockets, and makes any further ones fail at
+     * once. A lookup that lost a race has to be stopped this way, interrupting it is not enough.
+     */
+    public void cancel() {
+        synchronized (mOpenSockets) {
+            mCancelled = true;
+            for (Closeable socket : mOpenSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            mOpenSockets.clear();
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (mOpenSockets) {
+            return mCancelled;
+        }
+    }
+
+    private void register(Closeable socket) throws IOException {
+        synchronized (mOpenSockets) {
+            if (mCancelled) {
+                socket.close();
+                throw new InterruptedIOException("DNS query to " + mAddress + " cancelled");
+            }
+            mOpenSockets.add(socket);
+        }
+    }
+
+    private void unregister(Closeable socket) {
+        synchronized (mOpenSockets) {
+            mOpenSockets.remove(socket);
+        }
+    }
+
+    private Message sendUDP(Message query, byte[] queryData, int id) throws IOException {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            register(socket);
+            try {
+                return exchangeUDP(socket, query, queryData, id);
+            } finally {
+                unregister(socket);
+            }
+        }
+    }
+
+    private Message exchangeUDP(DatagramSocket socket, Message query, byte[] queryData, int id) throws IOException {
+        mBinding.bindDatagramSocket(socket);
+        //only the nameserver gets through to a connected socket, nobody else can answer for it
+        socket.connect(new InetSocketAddress(mAddress, mPort));
+        socket.setSoTimeout(mTimeoutMs);
+        socket.send(new DatagramPacket(queryData, queryData.length));
+
+        long deadline = System.currentTimeMillis() + mTimeoutMs;
+        byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+        while (true) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            socket.receive(packet);
+            byte[] responseData = new byte[packet.getLength()];
+            System.arraycopy(buffer, 0, responseData, 0, responseData.length);
+            Message response = parseResponse(query, responseData, id);
+            if (response != null) {
+                return response;
+            }
+            //stray packet, keep waiting for the rest of the timeout
+            int remaining = (int) (deadline - System.currentTimeMillis());
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("No matching DNS response from " + mAddress);
+            }
+            socket.setSoTimeout(remaining);
+        }
+    }
+
+    private Message sendTCP(Message query, byte[] queryData, int id) throws IOException {
+        try (Socket socket = mBinding.getSocketFactory().createSocket()) {
+            register(socket);
+            try {
+                return exchangeTCP(socket, query, queryData, id);
+            } finally {
+                unregister(socket);
+            }
+        }
+    }
+
+    private Message exchangeTCP(Socket socket, Message query, byte[] queryData, int id) throws IOException {
+        socket.connect(new InetSocketAddress(mAddress, mPort), mTimeoutMs);
+        socket.setSoTimeout(mTimeoutMs);
+
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeShort(queryData.length);
+        out.write(queryData);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] responseData = new byte[in.readUnsignedShort()];
+        in.readFully(responseData);
+        Message response = parseResponse(query, responseData, id);
+        if (response == null) {
+            throw new IOException("Invalid DNS response from " + mAddress);
+        }
+        return response;
+    }
+
+    /**
+     * @return The response, or null if it is not one to the query or its signature does not verify.
+     */
+    private Message parseResponse(Message query, byte[] data, int id) {
+        try {
+            Message response = new Message(data);
+            if (response.getHeader().getID() != id) {
+                return null;
+            }
+            if (mTSIG != null && mTSIG.verify(response, data, query.getTSIG()) != Rcode.NOERROR) {
+                return null;
+            }
+            return response;
+        } catch (IOException ex) {
+            //not a DNS message
+        }
+        return null;
+    }
+
+    @Override
+    public Object sendAsync(Message query, ResolverListener listener) {
+        Object id = new Object();
+        BackgroundExecutor.run(() -> {
+            try {
+                listener.receiveMessage(id, send(query));
+            } catch (Exception ex) {
+                listener.handleException(id, ex);
+            }
+        });
+        return id;
+    }
+}
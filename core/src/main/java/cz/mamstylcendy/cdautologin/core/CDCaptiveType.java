@@ -1,10 +1,12 @@
-package cz.mamstylcendy.cdautologin;
+package cz.mamstylcendy.cdautologin.core;
 
 public enum CDCaptiveType {
     NONE,
     UNKNOWN,
     CDWIFI_BASIC,
-    CDWIFI_PASSENGERA;
+    CDWIFI_PASSENGERA,
+    //a portal of a handler added to the PortalRegistry by the app
+    OTHER;
 
     public boolean isCdWifi() {
         return this == CDWIFI_PASSENGERA || this == CDWIFI_BASIC;
@@ -0,0 +1,803 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+public class CDWiFiLoginImpl {
+
+    private static final String TAG = CDWiFiLoginImpl.class.getSimpleName();
+
+    private static final String CONNECTIVITY_TEST_URL = "http://connectivitycheck.gstatic.com/generate_204";
+    //raced against the connectivity test, the portal answers directly on CD Wi-Fi
+    private static final String PORTAL_PROBE_URL = "http://cdwifi.cz/";
+
+    //one for detection, one for the login, which cannot reuse a connection cut off mid-page
+    private static final int WARM_CONNECTIONS = 2;
+
+    private final LoginPlatform mPlatform;
+    /*
+    What this is even for:
+    On devices which have private DNS enabled (most notably for ad blocking), the DNS resolver
+    will be unreachable until the captive portal lets us through. When Android does its own
+    captive portal flow, it uses a "bypass" network which ignores the private DNS setting until
+    a resolution has been reached. However, as this is a privileged system API with additional
+    signature/privileged permissions required for it to actually take effect, we need to
+    perform name resolution entirely on our own.
+     */
+    private final CustomDNSResolver mDNS;
+    private final OkHttpClient mClient;
+    private final OkHttpClient mClientNoRedirect;
+    private final Session mSession = new Session();
+    private final WarmConnections mWarmConnections = new WarmConnections();
+
+    private PortalRegistry mRegistry = PortalRegistry.getDefault();
+    private boolean mRaceDetection = true;
+    private boolean mSpeculativeLogin;
+    //login sent ahead of the detection result, see setSpeculativeLogin
+    private Speculation mSpeculation;
+    private Deadline mDeadline;
+    private LoginTimings mTimings;
+    private String mNetworkKey;
+    private String mFingerprintKey;
+
+    /**
+     * @param platform Access to the state of the network to log in to.
+     * @param clients  Clients bound to that network.
+     */
+    public CDWiFiLoginImpl(LoginPlatform platform, LoginClients clients) {
+        mPlatform = platform;
+        mDNS = clients.dns;
+        mClient = clients.client;
+        mClientNoRedirect = clients.clientNoRedirect;
+    }
+
+    private void updateDNS() {
+        //query every advertised nameserver, the first one is sometimes dead on train routers
+        List<InetAddress> nameservers = new ArrayList<>();
+        List<InetAddress> dnsServers = mPlatform.getDNSServers();
+        if (dnsServers != null) {
+            nameservers.addAll(dnsServers);
+        }
+        //the gateway usually runs a DNS forwarder too, keep it as the last resort
+        InetAddress gateway = mPlatform.getDefaultGateway();
+        nameservers.add(gateway);
+        mDNS.setNameservers(nameservers);
+
+        mNetworkKey = mPlatform.getWifiSSID()
+                + "|" + (gateway != null ? gateway.getHostAddress() : null)
+                + "|" + (dnsServers != null && !dnsServers.isEmpty() ? dnsServers.get(0).getHostAddress() : null);
+        mDNS.setAddressBook(mPlatform.getAddressBook(), mNetworkKey);
+        mFingerprintKey = PortalFingerprints.makeKey(mPlatform.getWifiSSID(), mPlatform.getWifiBSSID(), gateway);
+    }
+
+    /**
+     * @return Identity of the network as of the last detection or login, or null before the first.
+     */
+    public String getNetworkKey() {
+        return mNetworkKey;
+    }
+
+    /**
+     * Reads the identity of the network from the platform, without sending anything.
+     *
+     * @return See {@link #getNetworkKey()}, null if not on Wi-Fi.
+     */
+    public String identifyNetwork() {
+        if (!mPlatform.isConnectedToWifi()) {
+            return null;
+        }
+        updateDNS();
+        return mNetworkKey;
+    }
+
+    /**
+     * @return The portal that the network was last confirmed to run, or null if it is not known
+     * well enough and has to be detected.
+     */
+    public CaptivePortalInfo getKnownPortal() {
+        PortalFingerprints fingerprints = mPlatform.getFingerprints();
+        if (fingerprints == null || !mPlatform.isConnectedToWifi()) {
+            return null;
+        }
+        updateDNS();
+        PortalFingerprints.Entry entry = mFingerprintKey != null ? fingerprints.get(mFingerprintKey) : null;
+        //null if remembered by a handler that is no longer registered
+        PortalHandler handler = entry != null ? mRegistry.getHandler(entry.handler) : null;
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, "known portal", "handler", entry != null ? entry.handler : null);
+        }
+        return handler != null ? new CaptivePortalInfo(handler, entry.homeUrl) : null;
+    }
+
+    /**
+     * Remembers the portal of the network after a successful login to it.
+     */
+    public void rememberPortal(CaptivePortalInfo info) {
+        PortalFingerprints fingerprints = mPlatform.getFingerprints();
+        if (fingerprints != null && mFingerprintKey != null && info.isSupported()) {
+            fingerprints.confirm(mFingerprintKey, info.handler.getName(), info.homeUrl);
+        }
+    }
+
+    /**
+     * Forgets the portal of the network, after a login to the remembered one failed.
+     */
+    public void forgetPortal() {
+        PortalFingerprints fingerprints = mPlatform.getFingerprints();
+        if (fingerprints != null && mFingerprintKey != null) {
+            fingerprints.remove(mFingerprintKey);
+        }
+    }
+
+    /**
+     * Sends the connectivity test alone, a cheap check that the portal session is still alive.
+     *
+     * @return True if the network is not captive.
+     */
+    public boolean checkConnectivity() throws IOException {
+        if (!mPlatform.isConnectedToWifi()) {
+            return false;
+        }
+        updateDNS();
+        return mSession.checkConnectivity();
+    }
+
+    /**
+     * @param registry Handlers of the portals to detect and log in to. The CD Wi-Fi ones by default.
+     */
+    public void setPortalRegistry(PortalRegistry registry) {
+        mRegistry = registry;
+    }
+
+    /**
+     * @param raceDetection If true, the connectivity test and a direct request to the CD Wi-Fi
+     *                      portal are sent at once, and whichever gives a conclusive answer first
+     *                      wins. Otherwise, the portal is only contacted after the connectivity
+     *                      test redirects to it.
+     */
+    public void setRaceDetection(boolean raceDetection) {
+        mRaceDetection = raceDetection;
+    }
+
+    /**
+     * @param speculativeLogin If true, the login of the first CD Wi-Fi handler that
+     *                         {@link PortalHandler#supportsSpeculativeLogin() supports it} (that is
+     *                         Passengera) is sent in parallel with detection as soon as the network
+     *                         looks like CD Wi-Fi. The call is idempotent, so it is only made use of
+     *                         if detection confirms the portal of the handler, and thrown away
+     *                         otherwise. See {@link SpeculationStats}.
+     */
+    public void setSpeculativeLogin(boolean speculativeLogin) {
+        mSpeculativeLogin = speculativeLogin;
+    }
+
+    /**
+     * @param deadline Time budget shared by all DNS lookups and HTTP calls made from now on, or
+     *                 null for the default per-call timeouts only.
+     */
+    public void setDeadline(Deadline deadline) {
+        mDeadline = deadline;
+        mDNS.setDeadline(deadline);
+    }
+
+    /**
+     * @param timings Record to add the phases of all DNS lookups, HTTP calls and form parsing
+     *                made from now on to, or null.
+     */
+    public void setTimings(LoginTimings timings) {
+        mTimings = timings;
+        mDNS.setTimings(timings);
+    }
+
+    /**
+     * Starts resolving the hosts of the detection and login, and connecting to the portal, in the
+     * background. Returns right away, the requests that follow pick up whatever is ready by then.
+     * The time each one saved is added to the timings as the outcome of its DNS or connect phase.
+     */
+    public void prefetch() {
+        if (!mPlatform.isConnectedToWifi()) {
+            return;
+        }
+        updateDNS();
+        HttpUrl portalUrl = HttpUrl.get(PORTAL_PROBE_URL);
+        //all at once, the connections to the portal wait for its lookup rather than sending their own
+        mDNS.prefetch(HttpUrl.get(CONNECTIVITY_TEST_URL).host());
+        mDNS.prefetch(portalUrl.host());
+        CaptivePortalInfo knownInfo = getKnownPortal();
+        HttpUrl knownUrl = knownInfo != null ? HttpUrl.parse(knownInfo.homeUrl) : null;
+        if (knownUrl != null) {
+            mDNS.prefetch(knownUrl.host());
+        }
+        String systemUrl = mPlatform.getCaptivePortalUrl();
+        HttpUrl systemPortalUrl = systemUrl != null ? HttpUrl.parse(systemUrl) : null;
+        if (systemPortalUrl != null) {
+            mDNS.prefetch(systemPortalUrl.host());
+        }
+
+        mWarmConnections.clear();
+        for (int i = 0; i < WARM_CONNECTIONS; i++) {
+            preconnect(portalUrl);
+        }
+    }
+
+    /**
+     * Drops what {@link #prefetch()} got ready and the attempt did not use. Call at the end of every
+     * attempt, the clients outlive it and a later attempt must not pick up stale answers.
+     */
+    public void cancelPrefetch() {
+        mDNS.cancelPrefetches();
+        mWarmConnections.clear();
+    }
+
+    /**
+     * Opens a connection to the host of the URL and leaves it in the pool. There is no way to only
+     * connect through OkHttp, so this sends a HEAD request and throws the answer away.
+     */
+    private void preconnect(HttpUrl url) {
+        Call call = newCall(mClientNoRedirect, new Request.Builder().url(url).head().build(), "preconnect", true);
+        //not through execute, a failure here is not the deadline running out on the login
+        BackgroundExecutor.run(() -> {
+            try (Response response = call.execute()) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "preconnect", "host", url.host(), "code", response.code());
+                }
+            } catch (IOException ex) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "preconnect failed", "host", url.host(), "error", ex);
+                }
+            }
+        });
+    }
+
+    public CaptivePortalInfo detectCaptivePortal() throws IOException {
+        LoginTrace.beginSection("detect captive portal");
+        CaptivePortalInfo info = null;
+        try {
+            info = detectCaptivePortalTraced();
+            PortalHandler speculated = info.type == CDCaptiveType.NONE ? getAcceptedSpeculation() : null;
+            if (speculated != null) {
+                //the network was captive, but the speculative login was faster than the connectivity
+                //test, the portal accepting it confirms the portal just as well
+                info = new CaptivePortalInfo(speculated, PORTAL_PROBE_URL);
+            }
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "detected", "type", info.type, "url", info.homeUrl);
+            }
+            return info;
+        } finally {
+            if (info == null || mSpeculation == null || info.handler != mSpeculation.handler) {
+                discardSpeculation();
+            }
+            LoginTrace.endSection();
+        }
+    }
+
+    private CaptivePortalInfo detectCaptivePortalTraced() throws IOException {
+        if (!mPlatform.isConnectedToWifi()) {
+            return CaptivePortalInfo.notCaptive();
+        }
+        updateDNS();
+
+        if (PortalClassifier.looksLikeCdWifiSsid(mPlatform.getWifiSSID())) {
+            //most of the fleet runs Passengera
+            startSpeculativeLogin();
+        }
+
+        String systemUrl = mPlatform.getCaptivePortalUrl();
+        if (systemUrl != null && !mRegistry.findHandlers(systemUrl).isEmpty()) {
+            //the system has already followed the redirect that the connectivity test would get
+            if (mTimings != null) {
+                mTimings.add("connectivity probe", System.nanoTime(), LoginTimings.NO_BYTES, "skipped, portal known to the system");
+            }
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "portal from system", "location", systemUrl);
+            }
+            if (isCdWifiRedirect(systemUrl)) {
+                startSpeculativeLogin();
+            }
+            return detectPortal(systemUrl);
+        }
+
+        if (mRaceDetection) {
+            return detectCaptivePortalRace();
+        }
+
+        String captiveUrl;
+
+        try (Response response = sendRequestNoRedirect(newBasicHttpRequest(CONNECTIVITY_TEST_URL), "connectivity probe")) {
+            String location = response.header("Location");
+            CDCaptiveType type = PortalClassifier.classifyConnectivityProbe(response.code(), location, mRegistry);
+
+            if (type == CDCaptiveType.NONE) {
+                return CaptivePortalInfo.notCaptive();
+            }
+            if (type != null) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "no portal handler", "location", location);
+                }
+                return new CaptivePortalInfo(type, location);
+            }
+
+            captiveUrl = location;
+        }
+
+        if (isCdWifiRedirect(captiveUrl)) {
+            startSpeculativeLogin();
+        }
+        return detectPortal(captiveUrl);
+    }
+
+    /**
+     * Asks the handlers registered for the host of the URL which portal it is.
+     */
+    private CaptivePortalInfo detectPortal(String captiveUrl) throws IOException {
+        try {
+            for (PortalHandler handler : mRegistry.findHandlers(captiveUrl)) {
+                CaptivePortalInfo info = handler.detect(mSession, captiveUrl);
+                if (info != null) {
+                    return info;
+                }
+            }
+        } finally {
+            //the login fetches a fresh page, the form on this one may be used up by then
+            mSession.forgetGatewayPage();
+        }
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, "no portal handler", "location", captiveUrl);
+        }
+        return new CaptivePortalInfo(CDCaptiveType.UNKNOWN, captiveUrl);
+    }
+
+    private boolean isCdWifiRedirect(String location) {
+        for (PortalHandler handler : mRegistry.findHandlers(location)) {
+            if (handler.getType().isCdWifi()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CaptivePortalInfo detectCaptivePortalRace() throws IOException {
+        Call connectivityCall = newCall(mClientNoRedirect, newBasicHttpRequest(CONNECTIVITY_TEST_URL), "connectivity probe");
+        Call portalCall = newCall(mClient, newBasicHttpRequest(PORTAL_PROBE_URL), "portal probe");
+
+        CompletionService<Object> completionService = new ExecutorCompletionService<>(BackgroundExecutor.get());
+        long startTime = System.nanoTime();
+        Future<Object> connectivityFuture = completionService.submit(() -> runConnectivityProbe(connectivityCall));
+        completionService.submit(() -> runPortalProbe(portalCall));
+
+        ConnectivityProbeResult connectivity = null;
+        IOException connectivityError = null;
+        PortalProbeResult portal = null;
+
+        try {
+            for (int i = 0; i < 2; i++) {
+                Future<Object> done = completionService.take();
+                if (done == connectivityFuture) {
+                    try {
+                        connectivity = (ConnectivityProbeResult) done.get();
+                    } catch (ExecutionException ex) {
+                        connectivityError = toIOException(ex);
+                        continue;
+                    }
+                    //either not captive, or not ours, no need to wait for the portal
+                    if (!isCdWifiRedirect(connectivity.location) || portal != null) {
+                        break;
+                    }
+                    //the portal probe is still reading the gateway page, log in meanwhile
+                    startSpeculativeLogin();
+                } else {
+                    try {
+                        portal = (PortalProbeResult) done.get();
+                    } catch (ExecutionException ex) {
+                        portal = new PortalProbeResult(null, null, System.nanoTime() - startTime);
+                    }
+                    //the legacy form is only served before logging in, so that is captive CD Wi-Fi for sure
+                    if (portal.loginForm != null || connectivity != null) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during captive portal detection");
+        } finally {
+            connectivityCall.cancel();
+            portalCall.cancel();
+        }
+
+        if (LoginTrace.isEnabled()) {
+            //-1 for a probe that lost the race
+            LoginTrace.event(TAG, "detection race",
+                    "ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+                    "connectivity_ms", connectivity != null ? TimeUnit.NANOSECONDS.toMillis(connectivity.durationNanos) : -1,
+                    "portal_ms", portal != null ? TimeUnit.NANOSECONDS.toMillis(portal.durationNanos) : -1);
+        }
+
+        //null if the portal did not answer
+        CDCaptiveType pageType = portal != null && portal.url != null ? PortalClassifier.classifyPortalPage(portal.loginForm) : null;
+        if (pageType == CDCaptiveType.CDWIFI_BASIC) {
+            return new CaptivePortalInfo(LegacyPortalHandler.INSTANCE, portal.url, portal.loginForm);
+        }
+        if (connectivity == null) {
+            throw connectivityError;
+        }
+        if (connectivity.code == 204) {
+            return CaptivePortalInfo.notCaptive();
+        }
+        if (pageType != null) {
+            //the portal answered, but without the legacy form, no need to fetch its page again
+            PortalHandler handler = findHandler(connectivity.location, pageType);
+            if (handler != null) {
+                return new CaptivePortalInfo(handler, connectivity.location);
+            }
+        }
+        return detectPortal(connectivity.location);
+    }
+
+    /**
+     * @return The handler registered for the host of the URL that reports the type, or null.
+     */
+    private PortalHandler findHandler(String url, CDCaptiveType type) {
+        for (PortalHandler handler : mRegistry.findHandlers(url)) {
+            if (handler.getType() == type) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    private ConnectivityProbeResult runConnectivityProbe(Call call) throws IOException {
+        long startTime = System.nanoTime();
+        try (Response response = execute(call, "connectivity probe")) {
+            return new ConnectivityProbeResult(response.code(), response.header("Location"), System.nanoTime() - startTime);
+        }
+    }
+
+    private PortalProbeResult runPortalProbe(Call call) throws IOException {
+        long startTime = System.nanoTime();
+        try (Response response = execute(call, "portal probe")) {
+            //redirects are followed, a portal intercepting cdwifi.cz is not the one to post the form to
+            if (!response.isSuccessful() || !LegacyPortalHandler.isServedByPortal(response)) {
+                return new PortalProbeResult(null, null, System.nanoTime() - startTime);
+            }
+            LegacyLoginForm loginForm;
+            try (ResponseBody body = response.body()) {
+                loginForm = LegacyPortalHandler.parseLoginForm(mTimings, body);
+            }
+            return new PortalProbeResult(response.request().url().toString(), loginForm, System.nanoTime() - startTime);
+        }
+    }
+
+    private static IOException toIOException(ExecutionException ex) {
+        if (ex.getCause() instanceof IOException) {
+            return (IOException) ex.getCause();
+        }
+        throw new RuntimeException(ex.getCause());
+    }
+
+    private Request newBasicHttpRequest(String url) {
+        return newBasicHttpRequest(HttpUrl.get(url));
+    }
+
+    private Request newBasicHttpRequest(HttpUrl url) {
+        return new Request.Builder()
+                .url(url)
+                .build();
+    }
+
+    private Call newCall(OkHttpClient client, Request request, String phase) {
+        return newCall(client, request, phase, false);
+    }
+
+    /**
+     * @param opensWarm True if the call only opens a connection for the calls that follow.
+     */
+    private Call newCall(OkHttpClient client, Request request, String phase, boolean opensWarm) {
+        Request.Builder builder = request.newBuilder();
+        if (mDeadline != null) {
+            //the tag lets DeadlineInterceptor shorten the per-phase timeouts
+            builder.tag(Deadline.class, mDeadline);
+        }
+        if (mTimings != null || LoginTrace.isEnabled()) {
+            builder.tag(TimingEventListener.Tag.class, new TimingEventListener.Tag(mTimings, phase, mWarmConnections, opensWarm));
+        }
+        Call call = client.newCall(builder.build());
+        if (mDeadline != null) {
+            //covers all redirect hops and the response body
+            call.timeout().timeout(mDeadline.clampTimeoutMillis(Long.MAX_VALUE), TimeUnit.MILLISECONDS);
+        }
+        return call;
+    }
+
+    /**
+     * @param phase Step of the login that the call belongs to, reported if it exhausts the deadline.
+     */
+    private Response execute(Call call, String phase) throws IOException {
+        //ends when the headers are in, the body is read by the caller
+        LoginTrace.beginSection(phase);
+        try {
+            return call.execute();
+        } catch (IOException ex) {
+            if (mDeadline != null && mDeadline.isExpired() && !(ex instanceof DeadlineExceededException)) {
+                throw mDeadline.newExceededException(phase, ex);
+            }
+            throw ex;
+        } finally {
+            LoginTrace.endSection();
+        }
+    }
+
+    private Response sendRequest(OkHttpClient client, Request request, String phase) throws IOException {
+        return execute(newCall(client, request, phase), phase);
+    }
+
+    private Response sendRequest(Request request, String phase) throws IOException {
+        return sendRequest(mClient, request, phase);
+    }
+
+    private Response sendRequestNoRedirect(Request request, String phase) throws IOException {
+        return sendRequest(mClientNoRedirect, request, phase);
+    }
+
+    private void startSpeculativeLogin() {
+        if (!mSpeculativeLogin || mSpeculation != null) {
+            return;
+        }
+        PortalHandler handler = findSpeculativeHandler();
+        if (handler == null) {
+            return;
+        }
+        Speculation speculation = new Speculation(handler, newCall(mClientNoRedirect, handler.newSpeculativeLoginRequest(), "speculative authenticate"));
+        speculation.result = new FutureTask<>(() -> {
+            try (Response response = execute(speculation.call, "speculative authenticate")) {
+                return handler.isSpeculativeLoginAccepted(response);
+            } finally {
+                speculation.durationNanos = System.nanoTime() - speculation.startTime;
+            }
+        });
+        BackgroundExecutor.run(speculation.result);
+        mSpeculation = speculation;
+    }
+
+    /**
+     * @return The first handler of the CD Wi-Fi host, which all speculation is started for, that
+     * can log in ahead of detection, or null if there is none.
+     */
+    private PortalHandler findSpeculativeHandler() {
+        for (PortalHandler handler : mRegistry.findHandlers(PORTAL_PROBE_URL)) {
+            if (handler.supportsSpeculativeLogin()) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Never waits, a speculative login still in flight when the connectivity test passed did not
+     * let it through, and is cancelled along with the detection result.
+     *
+     * @return The handler whose speculative login was accepted, or null.
+     */
+    private PortalHandler getAcceptedSpeculation() throws IOException {
+        Speculation speculation = mSpeculation;
+        if (speculation == null || !speculation.result.isDone()) {
+            return null;
+        }
+        try {
+            return speculation.result.get() ? speculation.handler : null;
+        } catch (ExecutionException ex) {
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the speculative login");
+        }
+    }
+
+    /**
+     * Throws the speculative login away, detection did not confirm its portal.
+     */
+    private void discardSpeculation() {
+        Speculation speculation = mSpeculation;
+        mSpeculation = null;
+        if (speculation == null) {
+            return;
+        }
+        speculation.call.cancel();
+        SpeculationStats.getInstance().recordMiss();
+        if (mTimings != null) {
+            mTimings.add("speculative login", speculation.startTime, LoginTimings.NO_BYTES, "discarded");
+        }
+    }
+
+    /**
+     * @param handler Handler of the detected portal.
+     * @return True if the speculative login went through, false if there was none for the portal
+     * or it failed and the login has to be sent again.
+     */
+    private boolean commitSpeculation(PortalHandler handler) throws IOException {
+        Speculation speculation = mSpeculation;
+        if (speculation == null || speculation.handler != handler) {
+            return false;
+        }
+        mSpeculation = null;
+        long waitStart = System.nanoTime();
+        boolean accepted;
+        try {
+            long timeoutMs = mDeadline != null ? mDeadline.clampTimeoutMillis(Long.MAX_VALUE) : Long.MAX_VALUE;
+            accepted = speculation.result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            speculation.call.cancel();
+            accepted = false;
+        } catch (InterruptedException ex) {
+            speculation.call.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the speculative login");
+        }
+        if (!accepted) {
+            SpeculationStats.getInstance().recordFailure();
+            if (mTimings != null) {
+                mTimings.add("speculative login", speculation.startTime, LoginTimings.NO_BYTES, "failed");
+            }
+            return false;
+        }
+        //the time the login would have taken after detection, minus what was left of it
+        long savedMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(speculation.durationNanos - (System.nanoTime() - waitStart)));
+        SpeculationStats.getInstance().recordHit(savedMillis);
+        if (mTimings != null) {
+            mTimings.add("speculative login", speculation.startTime, LoginTimings.NO_BYTES, "hit, saved " + savedMillis + " ms");
+        }
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, "speculative login hit", "saved_ms", savedMillis, "stats", SpeculationStats.getInstance().describe());
+        }
+        return true;
+    }
+
+    private static class ConnectivityProbeResult {
+        final int code;
+        final String location;
+        final long durationNanos;
+
+        ConnectivityProbeResult(int code, String location, long durationNanos) {
+            this.code = code;
+            this.location = location;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private static class Speculation {
+        final PortalHandler handler;
+        final Call call;
+        final long startTime = System.nanoTime();
+        FutureTask<Boolean> result;
+        //set once the call is done
+        volatile long durationNanos;
+
+        Speculation(PortalHandler handler, Call call) {
+            this.handler = handler;
+            this.call = call;
+        }
+    }
+
+    private static class PortalProbeResult {
+        //null if the portal did not answer successfully
+        final String url;
+        final LegacyLoginForm loginForm;
+        final long durationNanos;
+
+        PortalProbeResult(String url, LegacyLoginForm loginForm, long durationNanos) {
+            this.url = url;
+            this.loginForm = loginForm;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private class Session implements PortalSession {
+
+        //the page of the redirect being detected, shared by the handlers asked about it
+        private String mGatewayLocation;
+        private GatewayPage mGatewayPage;
+
+        @Override
+        public Response send(Request request, String phase) throws IOException {
+            return sendRequest(request, phase);
+        }
+
+        @Override
+        public Response sendNoRedirect(Request request, String phase) throws IOException {
+            return sendRequestNoRedirect(request, phase);
+        }
+
+        @Override
+        public boolean checkConnectivity() throws IOException {
+            try (Response response = sendRequestNoRedirect(newBasicHttpRequest(CONNECTIVITY_TEST_URL), "connectivity check")) {
+                return response.code() == 204;
+            }
+        }
+
+        @Override
+        public GatewayPage fetchGatewayPage(String location) throws IOException {
+            if (location.equals(mGatewayLocation)) {
+                return mGatewayPage;
+            }
+            GatewayPage page;
+            try (Response response = sendRequest(newBasicHttpRequest(location), "gateway page")) {
+                if (!response.isSuccessful() || !LegacyPortalHandler.isServedByPortal(response)) {
+                    page = null;
+                } else {
+                    LegacyLoginForm loginForm;
+                    try (ResponseBody body = response.body()) {
+                        loginForm = LegacyPortalHandler.parseLoginForm(mTimings, body);
+                    }
+                    page = new GatewayPage(response.request().url().toString(), loginForm);
+                }
+            }
+            mGatewayLocation = location;
+            mGatewayPage = page;
+            return page;
+        }
+
+        void forgetGatewayPage() {
+            mGatewayLocation = null;
+            mGatewayPage = null;
+        }
+
+        @Override
+        public LoginTimings getTimings() {
+            return mTimings;
+        }
+    }
+
+    /**
+     * Logs in to the portal through its handler.
+     *
+     * @return True if logged in, false if the portal is not supported or rejected the login.
+     */
+    public boolean cdWifiLogin(CaptivePortalInfo captiveInfo) throws IOException {
+        LoginTrace.beginSection("login");
+        try {
+            if (!captiveInfo.isSupported()) {
+                return false;
+            }
+            updateDNS();
+            if (commitSpeculation(captiveInfo.handler)) {
+                return true;
+            }
+            if (!captiveInfo.handler.login(mSession, captiveInfo)) {
+                return false;
+            }
+            if (!captiveInfo.handler.verify(mSession, captiveInfo)) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "login not verified", "handler", captiveInfo.handler.getName());
+                }
+                return false;
+            }
+            return true;
+        } finally {
+            //left over if the login never got to it
+            discardSpeculation();
+            LoginTrace.endSection();
+            if (LoginTrace.isEnabled()) {
+                DNSCache cache = mDNS.getCache();
+                LoginTrace.event(TAG, "dns cache", "hits", cache.getHitCount(), "misses", cache.getMissCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.concurrent.TimeUnit;
+
+public class CaptivePortalInfo {
+    //the secret is tied to the gateway session, don't trust it for too long
+    private static final long LOGIN_FORM_VALIDITY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    public final CDCaptiveType type;
+    //null if there is no portal, or none of the registered handlers supports it
+    public final PortalHandler handler;
+    public final String homeUrl;
+
+    //login form captured during detection, only present for CDWIFI_BASIC
+    public final LegacyLoginForm loginForm;
+    public final long loginFormCaptureTime;
+
+    public CaptivePortalInfo(CDCaptiveType type, String homeUrl) {
+        this(type, null, homeUrl, null);
+    }
+
+    public CaptivePortalInfo(PortalHandler handler, String homeUrl) {
+        this(handler.getType(), handler, homeUrl, null);
+    }
+
+    public CaptivePortalInfo(PortalHandler handler, String homeUrl, LegacyLoginForm loginForm) {
+        this(handler.getType(), handler, homeUrl, loginForm);
+    }
+
+    private CaptivePortalInfo(CDCaptiveType type, PortalHandler handler, String homeUrl, LegacyLoginForm loginForm) {
+        this.type = type;
+        this.handler = handler;
+        this.homeUrl = homeUrl;
+        this.loginForm = loginForm;
+        this.loginFormCaptureTime = System.nanoTime();
+    }
+
+    /**
+     * @return True if there is a handler to log in to the portal with.
+     */
+    public boolean isSupported() {
+        return handler != null;
+    }
+
+    public LegacyLoginForm getFreshLoginForm() {
+        if (loginForm != null && System.nanoTime() - loginFormCaptureTime < LOGIN_FORM_VALIDITY_NANOS) {
+            return loginForm;
+        }
+        return null;
+    }
+
+    public static CaptivePortalInfo notCaptive() {
+        return new CaptivePortalInfo(CDCaptiveType.NONE, null);
+    }
+
+    public static CaptivePortalInfo failure() {
+        return null;
+    }
+}
@@ -0,0 +1,48 @@
+package cz.mamstylcendy.cdautologin.core;
+
+/**
+ * Logging for the platform-independent code. Prints to stderr until the platform installs its own
+ * sink, which on Android forwards to logcat.
+ */
+public final class CoreLog {
+
+    //same values as android.util.Log, so that the sink can pass them through
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+
+    public interface Sink {
+        void log(int priority, String tag, String message, Throwable th);
+    }
+
+    private static volatile Sink sSink = (priority, tag, message, th) -> {
+        System.err.println(tag + ": " + message);
+        if (th != null) {
+            th.printStackTrace();
+        }
+    };
+
+    private CoreLog() {
+
+    }
+
+    public static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    public static void d(String tag, String message) {
+        sSink.log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        sSink.log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sSink.log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable th) {
+        sSink.log(WARN, tag, message, th);
+    }
+}
@@ -0,0 +1,645 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import androidx.annotation.NonNull;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import okhttp3.Dns;
+
+public class CustomDNSResolver implements Dns {
+
+    private static final String TAG = CustomDNSResolver.class.getSimpleName();
+
+    private static final Pattern IP4_PATTERN = Pattern.compile("^((25[0-5]|(2[0-4]|1\\d|[1-9]|)\\d)\\.?\\b){4}$");
+    private static final Pattern IP6_PATTERN = Pattern.compile("^[0-9a-fA-F:]+$");
+
+    //how long to wait for a nameserver before asking the next one as well
+    private static final long HEDGE_DELAY_MS = 300;
+    //how long to wait for the AAAA answer once the A answer is in (RFC 8305 Resolution Delay)
+    private static final long RESOLUTION_DELAY_MS = 50;
+
+    private final SocketBinding mBinding;
+    private final SimpleResolver mDefaultResolver;
+    private List<InetAddress> mNameservers = List.of();
+    private volatile int mPort = SimpleResolver.DEFAULT_PORT;
+    private final DNSCache mCache = new DNSCache();
+    private final NameserverStats mStats = NameserverStats.getInstance();
+
+    private PortalAddressBook mAddressBook;
+    private String mNetworkKey;
+    private final Set<String> mPendingConfirmations = new HashSet<>();
+    //by hostname, until the first lookup of the host after the prefetch is done, or the end of the attempt
+    private final Map<String, Prefetch> mPrefetches = new HashMap<>();
+    private volatile Deadline mDeadline;
+    private volatile LoginTimings mTimings;
+
+    /**
+     * @param binding Network binding for the sockets of the DNS queries. Only applies to the
+     *                nameservers set explicitly, not the system default one.
+     */
+    public CustomDNSResolver(SocketBinding binding) {
+        mBinding = binding;
+        try {
+            mDefaultResolver = new SimpleResolver();
+        } catch (UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setNameserver(InetAddress address) {
+        setNameservers(address != null ? List.of(address) : List.of());
+    }
+
+    /**
+     * @param port Port to send queries to on all nameservers set explicitly, 53 by default.
+     */
+    public void setPort(int port) {
+        mPort = port;
+    }
+
+    /**
+     * Sets the nameservers to query, in the order they were advertised. With more than one,
+     * lookups are hedged - the most promising server is asked first, and every
+     * {@link #HEDGE_DELAY_MS} without an answer, the next one is asked as well. The first valid
+     * answer wins.
+     */
+    public synchronized void setNameservers(List<InetAddress> addresses) {
+        List<InetAddress> nameservers = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if (address != null && !nameservers.contains(address)) {
+                nameservers.add(address);
+            }
+        }
+        if (!nameservers.equals(mNameservers)) {
+            //answers of the old nameservers, same as the cache
+            cancelPrefetches();
+        }
+        mNameservers = nameservers;
+        mCache.setOwner(nameservers);
+    }
+
+    private synchronized List<InetAddress> getNameservers() {
+        return mNameservers;
+    }
+
+    /**
+     * Lets the resolver answer from addresses stored on a previous run on the same network. Such
+     * answers are returned right away and confirmed by a lookup in the background.
+     *
+     * @param networkKey Identity of the current network, see {@link PortalAddressBook}.
+     */
+    public synchronized void setAddressBook(PortalAddressBook addressBook, String networkKey) {
+        mAddressBook = addressBook;
+        mNetworkKey = networkKey;
+    }
+
+    /**
+     * @param deadline Time budget of the current login attempt. Queries are given at most the
+     *                 remaining time, and none are sent once it has run out.
+     */
+    public void setDeadline(Deadline deadline) {
+        mDeadline = deadline;
+    }
+
+    /**
+     * @param timings Record to add the duration and source of each lookup to, or null.
+     */
+    public void setTimings(LoginTimings timings) {
+        mTimings = timings;
+    }
+
+    public DNSCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * @return The first cached address of the hostname from the other family than the given
+     * address, or null if there is none.
+     */
+    public InetAddress findAlternateFamilyAddress(String hostname, InetAddress address) {
+        List<InetAddress> cached = mCache.peek(hostname);
+        if (cached != null) {
+            boolean isIPv6 = address instanceof Inet6Address;
+            for (InetAddress candidate : cached) {
+                if ((candidate instanceof Inet6Address) != isIPv6) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts resolving the hostname in the background, ahead of the requests that need it. Lookups
+     * of the host wait for that instead of sending queries of their own, and the first one records
+     * the time it saved. Does nothing if the host is already cached or being prefetched. The
+     * answer is only used for as long as the cache would keep it.
+     */
+    public void prefetch(String hostname) {
+        if (isIPAddress(hostname) || mCache.peek(hostname) != null) {
+            return;
+        }
+        PortalAddressBook addressBook;
+        String networkKey;
+        synchronized (this) {
+            addressBook = mAddressBook;
+            networkKey = mNetworkKey;
+        }
+        if (addressBook != null && addressBook.get(networkKey, hostname) != null) {
+            //answered right away anyway
+            return;
+        }
+
+        Prefetch prefetch = new Prefetch();
+        LoginTimings timings = mTimings;
+        prefetch.result = new FutureTask<>(() -> {
+            String source = "resolved";
+            try {
+                return resolveAndStore(addressBook, networkKey, hostname);
+            } catch (UnknownHostException ex) {
+                source = LoginTimings.describeFailure(ex);
+                throw ex;
+            } finally {
+                prefetch.durationNanos = System.nanoTime() - prefetch.startTime;
+                if (timings != null) {
+                    timings.add("DNS prefetch " + hostname, prefetch.startTime, LoginTimings.NO_BYTES, source);
+                }
+            }
+        });
+        synchronized (mPrefetches) {
+            //one that is done but not in the cache has failed or expired, and is replaced
+            Prefetch existing = mPrefetches.get(hostname);
+            if (existing != null && !existing.result.isDone()) {
+                return;
+            }
+            mPrefetches.put(hostname, prefetch);
+        }
+        BackgroundExecutor.run(prefetch.result);
+    }
+
+    /**
+     * Drops the prefetches that no lookup has used, so that they do not answer lookups of a later
+     * login attempt. Those still running finish into the cache.
+     */
+    public void cancelPrefetches() {
+        synchronized (mPrefetches) {
+            mPrefetches.clear();
+        }
+    }
+
+    private Prefetch getPrefetch(String hostname) {
+        synchronized (mPrefetches) {
+            return mPrefetches.get(hostname);
+        }
+    }
+
+    /**
+     * @return True for the first lookup to get the result of the prefetch, which is credited for it.
+     */
+    private boolean claimPrefetch(String hostname, Prefetch prefetch) {
+        synchronized (mPrefetches) {
+            if (mPrefetches.get(hostname) != prefetch) {
+                return false;
+            }
+            mPrefetches.remove(hostname);
+            return true;
+        }
+    }
+
+    /**
+     * @return Addresses from the prefetch, or null if it failed and the host has to be resolved again.
+     */
+    private List<InetAddress> awaitPrefetch(String hostname, Prefetch prefetch) throws UnknownHostException {
+        Deadline deadline = mDeadline;
+        try {
+            return prefetch.result.get(deadline != null ? deadline.clampTimeoutMillis(Long.MAX_VALUE) : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            //the failure may have been a lost packet
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted while waiting for the prefetch of " + hostname);
+        }
+    }
+
+    static boolean isIPAddress(String hostname) {
+        return IP4_PATTERN.matcher(hostname).matches() || IP6_PATTERN.matcher(hostname).matches();
+    }
+
+    @NonNull
+    @Override
+    public List<InetAddress> lookup(@NonNull String hostname) throws UnknownHostException {
+        if (isIPAddress(hostname)) {
+            return List.of(InetAddress.getAllByName(hostname));
+        }
+
+        LoginTimings timings = mTimings;
+        long startTime = System.nanoTime();
+        String source = "resolved";
+        LoginTrace.beginSection("DNS lookup");
+        try {
+            //before the cache, which a finished prefetch has already filled
+            Prefetch prefetch = getPrefetch(hostname);
+            if (prefetch != null) {
+                long waitStart = System.nanoTime();
+                List<InetAddress> prefetched = awaitPrefetch(hostname, prefetch);
+                if (prefetched != null && mCache.peek(hostname) == null) {
+                    //expired since, or the nameservers have changed, claimed below all the same
+                    prefetched = null;
+                }
+                if (claimPrefetch(hostname, prefetch) && prefetched != null) {
+                    //the time the lookup would have taken, minus what was left of it
+                    long savedMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(prefetch.durationNanos - (System.nanoTime() - waitStart)));
+                    source = "prefetched, saved " + savedMillis + " ms";
+                    return prefetched;
+                }
+                if (prefetched != null) {
+                    source = "prefetched";
+                    return prefetched;
+                }
+            }
+
+            DNSCache.Entry cached = mCache.get(hostname);
+            if (cached != null) {
+                source = "cache";
+                if (cached.isNegative()) {
+                    throw new UnknownHostException("No results for " + hostname + " (cached)");
+                }
+                return cached.addresses;
+            }
+
+            PortalAddressBook addressBook;
+            String networkKey;
+            synchronized (this) {
+                addressBook = mAddressBook;
+                networkKey = mNetworkKey;
+            }
+
+            if (addressBook != null) {
+                List<InetAddress> stored = addressBook.get(networkKey, hostname);
+                if (stored != null) {
+                    source = "address book";
+                    confirmStoredAddressesAsync(addressBook, networkKey, hostname);
+                    return stored;
+                }
+            }
+
+            return resolveAndStore(addressBook, networkKey, hostname);
+        } catch (UnknownHostException ex) {
+            source = LoginTimings.describeFailure(ex);
+            throw ex;
+        } finally {
+            LoginTrace.endSection();
+            if (timings != null) {
+                timings.add("DNS " + hostname, startTime, LoginTimings.NO_BYTES, source);
+            }
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "lookup", "host", hostname, "source", source,
+                        "ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            }
+        }
+    }
+
+    private List<InetAddress> resolveAndStore(PortalAddressBook addressBook, String networkKey, String hostname) throws UnknownHostException {
+        Deadline deadline = mDeadline;
+        if (deadline != null && deadline.isExpired()) {
+            deadline.markExhausted("DNS lookup of " + hostname);
+            throw new UnknownHostException("Deadline exceeded before resolving " + hostname);
+        }
+
+        LookupResult result;
+        try {
+            result = resolve(hostname);
+        } catch (UnknownHostException ex) {
+            if (deadline != null && deadline.isExpired()) {
+                deadline.markExhausted("DNS lookup of " + hostname);
+            }
+            throw ex;
+        }
+        storeResult(addressBook, networkKey, hostname, result);
+        if (result.isNegative()) {
+            throw new UnknownHostException("No address records for " + hostname);
+        }
+        return result.addresses;
+    }
+
+    private void confirmStoredAddressesAsync(PortalAddressBook addressBook, String networkKey, String hostname) {
+        synchronized (mPendingConfirmations) {
+            if (!mPendingConfirmations.add(hostname)) {
+                return;
+            }
+        }
+        BackgroundExecutor.run(() -> {
+            try {
+                storeResult(addressBook, networkKey, hostname, resolve(hostname));
+            } catch (UnknownHostException ex) {
+                //keep the stored addresses, the nameservers may just be slow to come up
+            } finally {
+                synchronized (mPendingConfirmations) {
+                    mPendingConfirmations.remove(hostname);
+                }
+            }
+        });
+    }
+
+    private void storeResult(PortalAddressBook addressBook, String networkKey, String hostname, LookupResult result) {
+        if (result.isNegative()) {
+            mCache.putNegative(hostname);
+            if (addressBook != null) {
+                addressBook.remove(networkKey, hostname);
+            }
+        } else {
+            mCache.putPositive(hostname, result.addresses, result.ttl);
+            if (addressBook != null) {
+                addressBook.put(networkKey, hostname, result.addresses);
+            }
+        }
+    }
+
+    private LookupResult resolve(String hostname) throws UnknownHostException {
+        //ask for both families at once, dual-stack routers are sometimes faster over IPv6
+        PendingQueries aaaaQueries = new PendingQueries();
+        FutureTask<LookupResult> aaaaQuery = new FutureTask<>(() -> resolve(hostname, Type.AAAA, aaaaQueries));
+        BackgroundExecutor.run(aaaaQuery);
+
+        LookupResult aResult = null;
+        UnknownHostException aError = null;
+        try {
+            aResult = resolve(hostname, Type.A, new PendingQueries());
+        } catch (UnknownHostException ex) {
+            aError = ex;
+        }
+
+        LookupResult aaaaResult = null;
+        try {
+            if (aResult != null && !aResult.isNegative()) {
+                aaaaResult = aaaaQuery.get(RESOLUTION_DELAY_MS, TimeUnit.MILLISECONDS);
+            } else {
+                aaaaResult = aaaaQuery.get();
+            }
+        } catch (TimeoutException ex) {
+            //IPv4 it is
+        } catch (ExecutionException ex) {
+            if (!(ex.getCause() instanceof UnknownHostException)) {
+                throw new RuntimeException(ex.getCause());
+            }
+            if (aError != null) {
+                throw aError;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted while resolving " + hostname);
+        } finally {
+            aaaaQuery.cancel(true);
+            aaaaQueries.cancel();
+        }
+
+        if (aResult == null) {
+            //an empty AAAA answer says nothing about IPv4, do not let a lost A query be cached as NXDOMAIN
+            if (aaaaResult.isNegative()) {
+                throw aError;
+            }
+            return aaaaResult;
+        }
+        return LookupResult.merge(aResult, aaaaResult, AddressFamilyStats.getInstance().preferIPv6());
+    }
+
+    /**
+     * @param queries Collects the queries sent, so that the caller can abort them.
+     */
+    private LookupResult resolve(String hostname, int type, PendingQueries queries) throws UnknownHostException {
+        List<InetAddress> nameservers = getNameservers();
+        if (nameservers.isEmpty()) {
+            return runLookup(mDefaultResolver, hostname, type);
+        } else if (nameservers.size() == 1) {
+            return runLookup(nameservers.get(0), hostname, type, queries);
+        } else {
+            //the hedged queries are aborted by the lookup itself once interrupted
+            return runHedgedLookup(mStats.order(nameservers), hostname, type);
+        }
+    }
+
+    private LookupResult runHedgedLookup(List<InetAddress> nameservers, String hostname, int type) throws UnknownHostException {
+        CompletionService<LookupResult> completionService = new ExecutorCompletionService<>(BackgroundExecutor.get());
+        List<Future<LookupResult>> queries = new ArrayList<>();
+        //a cancelled future does not stop a query waiting for its response, these do
+        PendingQueries pending = new PendingQueries();
+        LookupResult negativeResult = null;
+        UnknownHostException lastError = null;
+
+        try {
+            queries.add(completionService.submit(() -> runLookup(nameservers.get(0), hostname, type, pending)));
+            int finished = 0;
+            while (finished < queries.size()) {
+                Future<LookupResult> done;
+                if (queries.size() < nameservers.size()) {
+                    done = completionService.poll(HEDGE_DELAY_MS, TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        InetAddress next = nameservers.get(queries.size());
+                        queries.add(completionService.submit(() -> runLookup(next, hostname, type, pending)));
+                        continue;
+                    }
+                } else {
+                    done = completionService.take();
+                }
+                finished++;
+
+                try {
+                    LookupResult result = done.get();
+                    if (!result.isNegative()) {
+                        return result;
+                    }
+                    //a hijacking captive DNS may claim the host does not exist, let the others speak
+                    negativeResult = result;
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof UnknownHostException) {
+                        lastError = (UnknownHostException) ex.getCause();
+                    } else {
+                        throw new RuntimeException(ex.getCause());
+                    }
+                }
+
+                if (queries.size() < nameservers.size()) {
+                    //no point in waiting for the hedge delay after a failure
+                    InetAddress next = nameservers.get(queries.size());
+                    queries.add(completionService.submit(() -> runLookup(next, hostname, type, pending)));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted while resolving " + hostname);
+        } finally {
+            for (Future<LookupResult> query : queries) {
+                query.cancel(true);
+            }
+            pending.cancel();
+        }
+
+        if (negativeResult != null) {
+            return negativeResult;
+        }
+        throw lastError;
+    }
+
+    private LookupResult runLookup(InetAddress nameserver, String hostname, int type, PendingQueries queries) throws UnknownHostException {
+        BoundDNSResolver resolver = new BoundDNSResolver(nameserver, mBinding);
+        queries.add(resolver);
+        resolver.setPort(mPort);
+        Deadline deadline = mDeadline;
+        if (deadline != null) {
+            resolver.setTimeout(0, deadline.clampTimeoutMillis(BoundDNSResolver.DEFAULT_TIMEOUT_MS));
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            LookupResult result = runLookup(resolver, hostname, type);
+            mStats.recordSuccess(nameserver, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return result;
+        } catch (UnknownHostException ex) {
+            //losing a race says nothing about the nameserver
+            if (!resolver.isCancelled()) {
+                mStats.recordFailure(nameserver);
+            }
+            throw ex;
+        }
+    }
+
+    //package-private for the benchmarks, which feed it canned answers
+    static LookupResult runLookup(Resolver resolver, String hostname, int type) throws UnknownHostException {
+        Lookup lookup;
+        try {
+            lookup = new Lookup(hostname, type);
+        } catch (TextParseException e) {
+            throw new RuntimeException(e);
+        }
+        lookup.setResolver(resolver);
+        //use a throwaway cache instead of the process-wide default, ours is scoped to the nameservers
+        lookup.setCache(null);
+        Record[] results = lookup.run();
+        if (results == null) {
+            if (lookup.getResult() == Lookup.HOST_NOT_FOUND || lookup.getResult() == Lookup.TYPE_NOT_FOUND) {
+                return LookupResult.negative();
+            }
+            throw new UnknownHostException("No results for " + hostname + ": " + lookup.getErrorString());
+        }
+        List<InetAddress> addresses = new ArrayList<>();
+        long ttl = Long.MAX_VALUE;
+        for (Record rec : results) {
+            InetAddress address;
+            if (rec instanceof ARecord) {
+                address = ((ARecord) rec).getAddress();
+            } else if (rec instanceof AAAARecord) {
+                address = ((AAAARecord) rec).getAddress();
+            } else {
+                continue;
+            }
+            //tag the address with the name we were asked for, not the canonical one
+            addresses.add(InetAddress.getByAddress(hostname, address.getAddress()));
+            ttl = Math.min(ttl, rec.getTTL());
+        }
+        if (addresses.isEmpty()) {
+            return LookupResult.negative();
+        }
+        return new LookupResult(addresses, ttl);
+    }
+
+    /**
+     * Resolvers of the queries a lookup has sent. Closing their sockets is the only way to stop a
+     * query that is no longer needed, an interrupt does not end the wait for its response.
+     */
+    private static class PendingQueries {
+        private final List<BoundDNSResolver> resolvers = new ArrayList<>();
+        private boolean cancelled;
+
+        synchronized void add(BoundDNSResolver resolver) {
+            if (cancelled) {
+                resolver.cancel();
+            } else {
+                resolvers.add(resolver);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            for (BoundDNSResolver resolver : resolvers) {
+                resolver.cancel();
+            }
+            resolvers.clear();
+        }
+    }
+
+    private static class Prefetch {
+        final long startTime = System.nanoTime();
+        FutureTask<List<InetAddress>> result;
+        //set once the lookup is done
+        volatile long durationNanos;
+    }
+
+    static class LookupResult {
+        //null for NXDOMAIN or no address records
+        final List<InetAddress> addresses;
+        final long ttl;
+
+        LookupResult(List<InetAddress> addresses, long ttl) {
+            this.addresses = addresses;
+            this.ttl = ttl;
+        }
+
+        static LookupResult negative() {
+            return new LookupResult(null, 0);
+        }
+
+        /**
+         * Interleaves the addresses of both families, starting with the preferred one.
+         */
+        static LookupResult merge(LookupResult aResult, LookupResult aaaaResult, boolean preferIPv6) {
+            if (aaaaResult == null || aaaaResult.isNegative()) {
+                return aResult;
+            }
+            if (aResult.isNegative()) {
+                return aaaaResult;
+            }
+            List<InetAddress> first = preferIPv6 ? aaaaResult.addresses : aResult.addresses;
+            List<InetAddress> second = preferIPv6 ? aResult.addresses : aaaaResult.addresses;
+            List<InetAddress> addresses = new ArrayList<>(first.size() + second.size());
+            for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+                if (i < first.size()) {
+                    addresses.add(first.get(i));
+                }
+                if (i < second.size()) {
+                    addresses.add(second.get(i));
+                }
+            }
+            return new LookupResult(addresses, Math.min(aResult.ttl, aaaaResult.ttl));
+        }
+
+        boolean isNegative() {
+            return addresses == null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hostname cache of {@link CustomDNSResolver}.
+ * <p>
+ * Entries are only valid for the nameserver that produced them - captive networks happily hand out
+ * hijacked answers, so nothing may be carried over from one network to the next.
+ */
+public class DNSCache {
+
+    //negative answers carry their TTL in the SOA record, which Lookup does not give us
+    private static final long NEGATIVE_TTL_SECONDS = 30;
+    private static final long MAX_TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private Object mOwner;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Binds the cache to a nameserver or network. If it differs from the current one, all entries
+     * are dropped.
+     */
+    public synchronized void setOwner(Object owner) {
+        if (!Objects.equals(mOwner, owner)) {
+            mEntries.clear();
+            mOwner = owner;
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return The cache entry for the hostname, or null if there is none or it has expired.
+     */
+    public synchronized Entry get(String hostname) {
+        Entry entry = mEntries.get(hostname);
+        if (entry != null && entry.isExpired()) {
+            mEntries.remove(hostname);
+            entry = null;
+        }
+        if (entry != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Like {@link #get(String)}, but without touching the hit counters and negative entries.
+     */
+    public synchronized List<InetAddress> peek(String hostname) {
+        Entry entry = mEntries.get(hostname);
+        if (entry == null || entry.isExpired()) {
+            return null;
+        }
+        return entry.addresses;
+    }
+
+    public synchronized void putPositive(String hostname, List<InetAddress> addresses, long ttlSeconds) {
+        if (ttlSeconds > 0) {
+            mEntries.put(hostname, new Entry(addresses, Math.min(ttlSeconds, MAX_TTL_SECONDS)));
+        }
+    }
+
+    public synchronized void putNegative(String hostname) {
+        mEntries.put(hostname, new Entry(null, NEGATIVE_TTL_SECONDS));
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public static class Entry {
+        //null for negative entries
+        public final List<InetAddress> addresses;
+        private final long mExpiryTime;
+
+        private Entry(List<InetAddress> addresses, long ttlSeconds) {
+            this.addresses = addresses;
+            mExpiryTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+        }
+
+        public boolean isNegative() {
+            return addresses == null;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - mExpiryTime >= 0;
+        }
+    }
+}
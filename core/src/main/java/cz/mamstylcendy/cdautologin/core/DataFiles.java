@@ -0,0 +1,59 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Reading and writing of the small binary stores kept in files, such as {@link PortalAddressBook}.
+ */
+public final class DataFiles {
+
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private DataFiles() {
+
+    }
+
+    /**
+     * @return Buffered stream over the file, or null if it does not exist yet.
+     */
+    public static DataInputStream openInput(File file) {
+        try {
+            return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the contents of the file with what the writer writes. Everything goes to a
+     * temporary file first, the rename is atomic so a crash leaves either the old or the new
+     * version behind, never a torn one. On failure, the old version is left as it was.
+     */
+    public static void replace(File file, Writer writer) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                writer.write(out);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException ex) {
+            tempFile.delete();
+            throw ex;
+        }
+    }
+}
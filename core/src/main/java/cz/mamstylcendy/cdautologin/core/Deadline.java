@@ -0,0 +1,60 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Overall time budget of a login attempt. Every DNS lookup and HTTP call of the attempt only gets
+ * the time that is left, so that a chain of stalls cannot hold the worker for minutes.
+ */
+public class Deadline {
+
+    private final long mExpiryTime;
+    private final AtomicReference<String> mExhaustedPhase = new AtomicReference<>();
+
+    private Deadline(long expiryTime) {
+        mExpiryTime = expiryTime;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(mExpiryTime - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return mExpiryTime - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return The given timeout, shortened to the remaining budget. Never returns 0, which would
+     * mean no timeout at all to most APIs.
+     */
+    public int clampTimeoutMillis(long timeoutMs) {
+        return (int) Math.max(1, Math.min(timeoutMs, remainingMillis()));
+    }
+
+    /**
+     * Records the phase that ran out of time. Only the first phase to notice is kept, as the
+     * phases running after it fail merely because the budget is already gone.
+     */
+    public void markExhausted(String phase) {
+        mExhaustedPhase.compareAndSet(null, phase);
+    }
+
+    /**
+     * @return The phase that used up the budget, or null if it has not run out.
+     */
+    public String getExhaustedPhase() {
+        return mExhaustedPhase.get();
+    }
+
+    public DeadlineExceededException newExceededException(String phase, Throwable cause) {
+        markExhausted(phase);
+        DeadlineExceededException ex = new DeadlineExceededException(getExhaustedPhase());
+        ex.initCause(cause);
+        return ex;
+    }
+}
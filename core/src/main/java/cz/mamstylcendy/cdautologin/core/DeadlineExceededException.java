@@ -0,0 +1,19 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.net.SocketTimeoutException;
+
+public class DeadlineExceededException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String mPhase;
+
+    public DeadlineExceededException(String phase) {
+        super("Login deadline exceeded during " + phase);
+        mPhase = phase;
+    }
+
+    public String getPhase() {
+        return mPhase;
+    }
+}
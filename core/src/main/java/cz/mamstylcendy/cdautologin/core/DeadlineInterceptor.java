@@ -0,0 +1,34 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Shortens the connect, read and write timeouts of a call to what is left of the {@link Deadline}
+ * attached to its request as a tag. The call timeout covering all redirect hops is set by the
+ * caller.
+ */
+public class DeadlineInterceptor implements Interceptor {
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Deadline deadline = chain.request().tag(Deadline.class);
+        if (deadline == null) {
+            return chain.proceed(chain.request());
+        }
+        if (deadline.isExpired()) {
+            throw deadline.newExceededException("request to " + chain.request().url().host(), null);
+        }
+        return chain
+                .withConnectTimeout(deadline.clampTimeoutMillis(chain.connectTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .withReadTimeout(deadline.clampTimeoutMillis(chain.readTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .withWriteTimeout(deadline.clampTimeoutMillis(chain.writeTimeoutMillis()), TimeUnit.MILLISECONDS)
+                .proceed(chain.request());
+    }
+}
@@ -0,0 +1,17 @@
+package cz.mamstylcendy.cdautologin.core;
+
+/**
+ * The page of the CD Wi-Fi portal that the connectivity test was redirected to, see
+ * {@link PortalSession#fetchGatewayPage(String)}.
+ */
+public class GatewayPage {
+    //after redirects
+    public final String url;
+    //null if there is none on the page
+    public final LegacyLoginForm loginForm;
+
+    public GatewayPage(String url, LegacyLoginForm loginForm) {
+        this.url = url;
+        this.loginForm = loginForm;
+    }
+}
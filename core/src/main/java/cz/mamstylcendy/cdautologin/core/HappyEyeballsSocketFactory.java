@@ -0,0 +1,421 @@
+package cz.mamstylcendy.cdautologin.core;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+/**
+ * Socket factory that races connections over IPv4 and IPv6 in the style of RFC 8305.
+ * <p>
+ * OkHttp only ever tries the resolved addresses one after another, waiting out the full connect
+ * timeout on a dead route. Here, the address OkHttp asks for (which is of the preferred family, as
+ * {@link CustomDNSResolver} interleaves its answers) gets a short head start, after which an
+ * address of the other family is tried in parallel. The first established connection wins and
+ * the socket transparently delegates to it.
+ */
+public class HappyEyeballsSocketFactory extends SocketFactory {
+
+    private static final String TAG = HappyEyeballsSocketFactory.class.getSimpleName();
+
+    //RFC 8305 Connection Attempt Delay
+    private static final long CONNECTION_ATTEMPT_DELAY_MS = 250;
+
+    private final SocketFactory mDelegate;
+    private final CustomDNSResolver mDNS;
+    private final AddressFamilyStats mStats = AddressFamilyStats.getInstance();
+
+    public HappyEyeballsSocketFactory(SocketFactory delegate, CustomDNSResolver dns) {
+        mDelegate = delegate;
+        mDNS = dns;
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new RacingSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Behaves like a plain socket, unless the endpoint has an address of the other family to race
+     * against. In that case, everything is forwarded to the socket that won. A socket bound to a
+     * specific local address is stuck with its family, so it never races.
+     */
+    private class RacingSocket extends Socket {
+
+        private volatile Socket mWinner;
+        private int mSoTimeout;
+        private InetSocketAddress mBindpoint;
+        //the sockets still connecting, close() has to reach them to abort a connect that hangs
+        private final List<Socket> mPending = new ArrayList<>();
+        //guarded by mPending
+        private boolean mClosed;
+
+        @Override
+        public void bind(SocketAddress bindpoint) throws IOException {
+            if (bindpoint != null && !(bindpoint instanceof InetSocketAddress)) {
+                throw new IllegalArgumentException("Unsupported address type");
+            }
+            if (mWinner != null || mBindpoint != null) {
+                throw new SocketException("Already bound");
+            }
+            //the sockets are only made when connecting, the address is applied to them then
+            mBindpoint = bindpoint != null ? (InetSocketAddress) bindpoint : new InetSocketAddress(0);
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint) throws IOException {
+            connect(endpoint, 0);
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            InetAddress alternate = null;
+            if (endpoint instanceof InetSocketAddress && !isBoundToAddress()) {
+                InetSocketAddress inetEndpoint = (InetSocketAddress) endpoint;
+                if (inetEndpoint.getAddress() != null) {
+                    alternate = mDNS.findAlternateFamilyAddress(inetEndpoint.getHostString(), inetEndpoint.getAddress());
+                }
+            }
+            if (alternate == null) {
+                //still through the delegate, which binds the socket to the network
+                Socket socket = mDelegate.createSocket();
+                addPending(socket);
+                try {
+                    socket.setSoTimeout(mSoTimeout);
+                    if (mBindpoint != null) {
+                        socket.bind(mBindpoint);
+                    }
+                    socket.connect(endpoint, timeout);
+                } catch (IOException ex) {
+                    removePending(socket);
+                    socket.close();
+                    throw ex;
+                }
+                setWinner(socket);
+                return;
+            }
+            InetSocketAddress primary = (InetSocketAddress) endpoint;
+            setWinner(race(primary, new InetSocketAddress(alternate, primary.getPort()), timeout));
+        }
+
+        private void addPending(Socket socket) throws SocketException {
+            synchronized (mPending) {
+                if (mClosed) {
+                    closeQuietly(socket);
+                    throw new SocketException("Socket is closed");
+                }
+                mPending.add(socket);
+            }
+        }
+
+        private void removePending(Socket socket) {
+            synchronized (mPending) {
+                mPending.remove(socket);
+            }
+        }
+
+        /**
+         * Makes the connected socket the one everything is forwarded to, unless closed meanwhile.
+         */
+        private void setWinner(Socket socket) throws SocketException {
+            synchronized (mPending) {
+                mPending.remove(socket);
+                if (mClosed) {
+                    closeQuietly(socket);
+                    throw new SocketException("Socket closed while connecting");
+                }
+                mWinner = socket;
+            }
+        }
+
+        private Socket connectAttempt(InetSocketAddress endpoint, int timeout) throws IOException {
+            Socket socket = mDelegate.createSocket();
+            addPending(socket);
+            long startTime = System.nanoTime();
+            try {
+                socket.setSoTimeout(mSoTimeout);
+                socket.connect(endpoint, timeout);
+            } catch (IOException ex) {
+                mStats.recordFailure(endpoint.getAddress());
+                removePending(socket);
+                socket.close();
+                throw ex;
+            }
+            mStats.recordConnect(endpoint.getAddress(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return socket;
+        }
+
+        /**
+         * @return True if bound to a local address or port that the two attempts could not share.
+         */
+        private boolean isBoundToAddress() {
+            return mBindpoint != null && (!mBindpoint.getAddress().isAnyLocalAddress() || mBindpoint.getPort() != 0);
+        }
+
+        private Socket race(InetSocketAddress primary, InetSocketAddress alternate, int timeout) throws IOException {
+            CompletionService<Socket> completionService = new ExecutorCompletionService<>(BackgroundExecutor.get());
+            List<Future<Socket>> futures = new ArrayList<>();
+            Socket winner = null;
+            IOException firstError = null;
+
+            try {
+                futures.add(completionService.submit(() -> connectAttempt(primary, timeout)));
+                int finished = 0;
+                Future<Socket> done = completionService.poll(CONNECTION_ATTEMPT_DELAY_MS, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    finished++;
+                    try {
+                        winner = done.get();
+                    } catch (ExecutionException ex) {
+                        firstError = getConnectError(ex);
+                    }
+                }
+
+                if (winner == null) {
+                    //the head start is over or the preferred family already failed
+                    futures.add(completionService.submit(() -> connectAttempt(alternate, timeout)));
+                }
+                while (winner == null && finished < futures.size()) {
+                    done = completionService.take();
+                    finished++;
+                    try {
+                        winner = done.get();
+                    } catch (ExecutionException ex) {
+                        if (firstError == null) {
+                            firstError = getConnectError(ex);
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                firstError = new SocketException("Interrupted while connecting to " + primary);
+            } finally {
+                for (Future<Socket> future : futures) {
+                    future.cancel(true);
+                }
+                //closing the losers also aborts their pending connects
+                synchronized (mPending) {
+                    for (Socket attempt : new ArrayList<>(mPending)) {
+                        if (attempt != winner) {
+                            closeQuietly(attempt);
+                            mPending.remove(attempt);
+                        }
+                    }
+                }
+            }
+
+            if (winner == null) {
+                throw firstError != null ? firstError : new SocketException("Could not connect to " + primary);
+            }
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "race won", "address", winner.getInetAddress(), "stats", mStats.describe());
+            }
+            return winner;
+        }
+
+        private IOException getConnectError(ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                return (IOException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return mWinner != null ? mWinner.getInetAddress() : super.getInetAddress();
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return mWinner != null ? mWinner.getLocalAddress() : super.getLocalAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return mWinner != null ? mWinner.getPort() : super.getPort();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return mWinner != null ? mWinner.getLocalPort() : super.getLocalPort();
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return mWinner != null ? mWinner.getRemoteSocketAddress() : super.getRemoteSocketAddress();
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            return mWinner != null ? mWinner.getLocalSocketAddress() : super.getLocalSocketAddress();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mWinner != null ? mWinner.getInputStream() : super.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return mWinner != null ? mWinner.getOutputStream() : super.getOutputStream();
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) throws SocketException {
+            if (mWinner != null) {
+                mWinner.setTcpNoDelay(on);
+            } else {
+                super.setTcpNoDelay(on);
+            }
+        }
+
+        @Override
+        public boolean getTcpNoDelay() throws SocketException {
+            return mWinner != null ? mWinner.getTcpNoDelay() : super.getTcpNoDelay();
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) throws SocketException {
+            mSoTimeout = timeout;
+            if (mWinner != null) {
+                mWinner.setSoTimeout(timeout);
+            } else {
+                super.setSoTimeout(timeout);
+            }
+        }
+
+        @Override
+        public synchronized int getSoTimeout() throws SocketException {
+            return mWinner != null ? mWinner.getSoTimeout() : super.getSoTimeout();
+        }
+
+        @Override
+        public void setKeepAlive(boolean on) throws SocketException {
+            if (mWinner != null) {
+                mWinner.setKeepAlive(on);
+            } else {
+                super.setKeepAlive(on);
+            }
+        }
+
+        @Override
+        public boolean getKeepAlive() throws SocketException {
+            return mWinner != null ? mWinner.getKeepAlive() : super.getKeepAlive();
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            if (mWinner != null) {
+                mWinner.shutdownInput();
+            } else {
+                super.shutdownInput();
+            }
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            if (mWinner != null) {
+                mWinner.shutdownOutput();
+            } else {
+                super.shutdownOutput();
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            synchronized (mPending) {
+                mClosed = true;
+                //aborts a connect in progress, which then fails on the thread that made it
+                for (Socket socket : mPending) {
+                    closeQuietly(socket);
+                }
+                mPending.clear();
+            }
+            if (mWinner != null) {
+                mWinner.close();
+            }
+            super.close();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mWinner != null ? mWinner.isConnected() : super.isConnected();
+        }
+
+        @Override
+        public boolean isBound() {
+            return mWinner != null ? mWinner.isBound() : mBindpoint != null;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return mWinner != null ? mWinner.isClosed() : super.isClosed();
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            return mWinner != null ? mWinner.isInputShutdown() : super.isInputShutdown();
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            return mWinner != null ? mWinner.isOutputShutdown() : super.isOutputShutdown();
+        }
+
+        @Override
+        public String toString() {
+            return mWinner != null ? mWinner.toString() : super.toString();
+        }
+    }
+}
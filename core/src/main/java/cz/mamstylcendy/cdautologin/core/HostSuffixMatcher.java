@@ -0,0 +1,205 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps host names to values by domain suffix. A suffix matches the domain itself and all of its
+ * subdomains, but not other names that merely end with the same characters ("cdwifi.cz" matches
+ * "portal.cdwifi.cz", not "notcdwifi.cz"). If more suffixes match, the longest one wins.
+ * <p>
+ * The suffixes are compiled into a trie over the reversed host, flattened into arrays, so that a
+ * lookup is a single pass over the host from its end, no matter how many suffixes there are, and
+ * allocates nothing.
+ */
+public final class HostSuffixMatcher<T> {
+
+    //per node, its outgoing edges are mEdgeChars/mEdgeTargets[mFirstEdge[node] .. mFirstEdge[node + 1]), sorted
+    private final int[] mFirstEdge;
+    private final char[] mEdgeChars;
+    private final int[] mEdgeTargets;
+    //per node, the value of the suffix that ends there, or null
+    private final Object[] mValues;
+
+    private HostSuffixMatcher(int[] firstEdge, char[] edgeChars, int[] edgeTargets, Object[] values) {
+        mFirstEdge = firstEdge;
+        mEdgeChars = edgeChars;
+        mEdgeTargets = edgeTargets;
+        mValues = values;
+    }
+
+    /**
+     * @param host Host name, in any case, with or without the trailing dot.
+     * @return Value of the longest matching suffix, or null if none matches.
+     */
+    public T match(String host) {
+        return host != null ? match(host, 0, host.length()) : null;
+    }
+
+    /**
+     * @return Value of the longest suffix matching the host of the absolute URL, or null if none
+     * matches or the URL has no host.
+     */
+    public T matchUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd == -1) {
+            return null;
+        }
+        int start = schemeEnd + 3;
+        int end = start;
+        int portStart = -1;
+        //a single scan over the authority, the URL is not parsed any further
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#' || c == '\\') {
+                break;
+            }
+            if (c == '@') {
+                start = end + 1;
+                portStart = -1;
+            } else if (c == ':' && portStart == -1) {
+                portStart = end;
+            }
+            end++;
+        }
+        if (portStart != -1) {
+            end = portStart;
+        }
+        return match(url, start, end);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T match(CharSequence s, int start, int end) {
+        if (end > start && s.charAt(end - 1) == '.') {
+            end--;
+        }
+        Object best = null;
+        int node = 0;
+        for (int i = end - 1; i >= start; i--) {
+            node = findEdge(node, toLowerCase(s.charAt(i)));
+            if (node == -1) {
+                return (T) best;
+            }
+            if (mValues[node] != null && (i == start || s.charAt(i - 1) == '.')) {
+                best = mValues[node];
+            }
+        }
+        return (T) best;
+    }
+
+    private int findEdge(int node, char c) {
+        int low = mFirstEdge[node];
+        int high = mFirstEdge[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = mEdgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mEdgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static char toLowerCase(char c) {
+        //host names are ASCII, anything else is compared as is
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    public static class Builder<T> {
+
+        private final Node<T> mRoot = new Node<>();
+        private int mNodeCount = 1;
+        private int mEdgeCount;
+
+        private static class Node<T> {
+            final TreeMap<Character, Node<T>> children = new TreeMap<>();
+            T value;
+        }
+
+        /**
+         * Adds the suffix, replacing the value of the same suffix added before.
+         *
+         * @param suffix Domain name, with or without a leading "." or "*.".
+         */
+        public Builder<T> put(String suffix, T value) {
+            String normalized = normalize(suffix);
+            Node<T> node = mRoot;
+            for (int i = normalized.length() - 1; i >= 0; i--) {
+                char c = normalized.charAt(i);
+                Node<T> child = node.children.get(c);
+                if (child == null) {
+                    child = new Node<>();
+                    node.children.put(c, child);
+                    mNodeCount++;
+                    mEdgeCount++;
+                }
+                node = child;
+            }
+            node.value = value;
+            return this;
+        }
+
+        /**
+         * @return Value of the suffix as added, or null.
+         */
+        public T get(String suffix) {
+            String normalized = normalize(suffix);
+            Node<T> node = mRoot;
+            for (int i = normalized.length() - 1; i >= 0 && node != null; i--) {
+                node = node.children.get(normalized.charAt(i));
+            }
+            return node != null ? node.value : null;
+        }
+
+        private static String normalize(String suffix) {
+            String normalized = suffix.toLowerCase(Locale.ROOT);
+            if (normalized.startsWith("*.")) {
+                normalized = normalized.substring(2);
+            } else if (normalized.startsWith(".")) {
+                normalized = normalized.substring(1);
+            }
+            if (normalized.endsWith(".")) {
+                normalized = normalized.substring(0, normalized.length() - 1);
+            }
+            if (normalized.isEmpty()) {
+                throw new IllegalArgumentException("Empty host suffix: " + suffix);
+            }
+            return normalized;
+        }
+
+        public HostSuffixMatcher<T> build() {
+            int[] firstEdge = new int[mNodeCount + 1];
+            char[] edgeChars = new char[mEdgeCount];
+            int[] edgeTargets = new int[mEdgeCount];
+            Object[] values = new Object[mNodeCount];
+
+            //breadth first, so that the edges of each node end up next to each other
+            List<Node<T>> queue = new ArrayList<>(mNodeCount);
+            queue.add(mRoot);
+            int edge = 0;
+            for (int node = 0; node < queue.size(); node++) {
+                Node<T> current = queue.get(node);
+                values[node] = current.value;
+                firstEdge[node] = edge;
+                for (Map.Entry<Character, Node<T>> child : current.children.entrySet()) {
+                    edgeChars[edge] = child.getKey();
+                    edgeTargets[edge] = queue.size();
+                    queue.add(child.getValue());
+                    edge++;
+                }
+            }
+            firstEdge[mNodeCount] = edge;
+            return new HostSuffixMatcher<>(firstEdge, edgeChars, edgeTargets, values);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package cz.mamstylcendy.cdautologin.core;
+
+public class LegacyLoginForm {
+    public final String action;
+    public final String secret;
+
+    public LegacyLoginForm(String action, String secret) {
+        this.action = action;
+        this.secret = secret;
+    }
+}
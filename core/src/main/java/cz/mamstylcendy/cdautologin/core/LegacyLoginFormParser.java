@@ -0,0 +1,193 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Extracts the legacy CD Wi-Fi login form from the gateway page.
+ * <p>
+ * The page is fed to the HTML tree builder incrementally as it arrives, and reading stops as soon
+ * as the secret input has been seen, so we do not wait for the rest of the page on a slow link.
+ * Reading also stops without a form after the first {@link #MAX_STREAM_BYTES}, which is how the
+ * Passengera page ends up classified, and a response that is not a page is not read at all, see
+ * {@link PortalClassifier#mayCarryLoginForm}. The rest of the page is then never downloaded. Only
+ * if the streaming pass fails is the whole page read and parsed in one go.
+ */
+public class LegacyLoginFormParser {
+
+    private static final String SECRET_INPUT_QUERY = "input[name=\"secret\"]";
+
+    //the legacy form sits within the first kilobyte of its page, a page that has not shown it in
+    //eight times that has none
+    static final long MAX_STREAM_BYTES = 8 * 1024;
+
+    private long mBytesRead;
+    private long mBytesSkipped = -1;
+    private long mParseTimeNanos;
+    private boolean mUsedFallback;
+    private boolean mLimitReached;
+
+    public LegacyLoginForm parse(ResponseBody body) throws IOException {
+        if (body == null) {
+            throw new IOException("Empty response body");
+        }
+        long startTime = System.nanoTime();
+        try {
+            return parseImpl(body);
+        } finally {
+            mParseTimeNanos = System.nanoTime() - startTime;
+        }
+    }
+
+    private LegacyLoginForm parseImpl(ResponseBody body) throws IOException {
+        MediaType contentType = body.contentType();
+        if (!PortalClassifier.mayCarryLoginForm(contentType != null ? contentType.toString() : null, body.contentLength())) {
+            skipRest(body, 0);
+            return null;
+        }
+
+        Charset charset = getCharset(body);
+        BufferedSource rawSource = body.source();
+        TeeSource teeSource = new TeeSource(rawSource);
+
+        try (StreamParser parser = new StreamParser(Parser.htmlParser())) {
+            parser.parse(new InputStreamReader(Okio.buffer(teeSource).inputStream(), charset), "");
+            Element element = parser.selectNext(SECRET_INPUT_QUERY);
+            mBytesRead = teeSource.mCopy.size();
+            if (element == null) {
+                //the whole document or the part up to the limit has been read, the tree builder is
+                //the same as for a full parse
+                if (teeSource.mLimitReached) {
+                    mLimitReached = true;
+                    skipRest(body, mBytesRead);
+                }
+                return null;
+            }
+            LegacyLoginForm form = getFormInfo(element);
+            if (form != null) {
+                //nothing else on the page is of any interest to us
+                skipRest(body, mBytesRead);
+                return form;
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (RuntimeException ex) {
+            //fall through to the full parse
+        }
+
+        mUsedFallback = true;
+        Buffer page = teeSource.mCopy;
+        page.writeAll(rawSource);
+        mBytesRead = page.size();
+        Document doc = Jsoup.parse(page.readString(charset));
+        Element secretEl = doc.selectFirst(SECRET_INPUT_QUERY);
+        if (secretEl != null) {
+            return getFormInfo(secretEl);
+        }
+        return null;
+    }
+
+    /**
+     * Closes the body before it has been read to the end, which aborts its download.
+     */
+    private void skipRest(ResponseBody body, long bytesRead) {
+        long contentLength = body.contentLength();
+        mBytesSkipped = contentLength >= 0 ? Math.max(0, contentLength - bytesRead) : -1;
+        body.close();
+    }
+
+    private static LegacyLoginForm getFormInfo(Element secretEl) {
+        Element form = secretEl.closest("form");
+        if (form != null) {
+            return new LegacyLoginForm(form.attr("action"), secretEl.val());
+        }
+        return null;
+    }
+
+    private static Charset getCharset(ResponseBody body) {
+        MediaType contentType = body.contentType();
+        if (contentType != null) {
+            return contentType.charset(StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * @return How much of the body was left undownloaded, or -1 if it was read to the end or its
+     * length is unknown.
+     */
+    public long getBytesSkipped() {
+        return mBytesSkipped;
+    }
+
+    public long getParseTimeMillis() {
+        return mParseTimeNanos / 1000000L;
+    }
+
+    public boolean usedFallback() {
+        return mUsedFallback;
+    }
+
+    /**
+     * @return True if no form was found within {@link #MAX_STREAM_BYTES}, and the rest of the page
+     * was left unread.
+     */
+    public boolean isLimitReached() {
+        return mLimitReached;
+    }
+
+    /**
+     * Keeps a copy of everything read so far, so that the full parse can pick up where the
+     * streaming one gave up without requesting the page again.
+     */
+    private static class TeeSource extends ForwardingSource {
+
+        private final Buffer mCopy = new Buffer();
+        //the streaming parser sees the end of the page there
+        private boolean mLimitReached;
+
+        public TeeSource(Source delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long remaining = MAX_STREAM_BYTES - mCopy.size();
+            if (remaining <= 0) {
+                mLimitReached = true;
+                return -1;
+            }
+            long read = super.read(sink, Math.min(byteCount, remaining));
+            if (read > 0) {
+                sink.copyTo(mCopy, sink.size() - read, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            //the response body is owned and closed by the caller
+        }
+    }
+}
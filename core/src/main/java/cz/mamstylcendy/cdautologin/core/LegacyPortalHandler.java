@@ -0,0 +1,205 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * The original CD Wi-Fi portal, which serves a form with a per-session secret that has to be
+ * posted back along with the consent to the terms.
+ */
+public class LegacyPortalHandler implements PortalHandler {
+
+    private static final String TAG = LegacyPortalHandler.class.getSimpleName();
+
+    public static final LegacyPortalHandler INSTANCE = new LegacyPortalHandler();
+
+    private static final String[] HOST_SUFFIXES = {"cdwifi.cz"};
+    private static final HostSuffixMatcher<Boolean> HOSTS = new HostSuffixMatcher.Builder<Boolean>()
+            .put(HOST_SUFFIXES[0], true)
+            .build();
+
+    private LegacyPortalHandler() {
+
+    }
+
+    @Override
+    public String getName() {
+        return CDCaptiveType.CDWIFI_BASIC.name();
+    }
+
+    @Override
+    public CDCaptiveType getType() {
+        return CDCaptiveType.CDWIFI_BASIC;
+    }
+
+    @Override
+    public String[] getHostSuffixes() {
+        return HOST_SUFFIXES.clone();
+    }
+
+    @Override
+    public CaptivePortalInfo detect(PortalSession session, String location) throws IOException {
+        GatewayPage page = session.fetchGatewayPage(location);
+        if (page == null || page.loginForm == null) {
+            return null;
+        }
+        //the form is only served before logging in, keep it so that the login does not have to
+        //fetch the gateway page again
+        return new CaptivePortalInfo(this, location, page.loginForm);
+    }
+
+    @Override
+    public boolean login(PortalSession session, CaptivePortalInfo info) throws IOException {
+        LegacyLoginForm formInfo = info.getFreshLoginForm();
+        if (formInfo != null) {
+            if (postLoginForm(session, info, formInfo)) {
+                return true;
+            }
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "login form from detection rejected");
+            }
+        }
+
+        formInfo = fetchLoginForm(session, info);
+        if (formInfo == null) {
+            return false;
+        }
+
+        return postLoginForm(session, info, formInfo);
+    }
+
+    @Override
+    public boolean verify(PortalSession session, CaptivePortalInfo info) {
+        //already told by login, a rejected post gets the form served again instead of the welcome page
+        return true;
+    }
+
+    /**
+     * @param timings Record to add the parse to, or null.
+     * @return The login form on the page, or null if there is none.
+     */
+    static LegacyLoginForm parseLoginForm(LoginTimings timings, ResponseBody body) throws IOException {
+        LegacyLoginFormParser parser = new LegacyLoginFormParser();
+        long startTime = System.nanoTime();
+        LegacyLoginForm form;
+        LoginTrace.beginSection("form parse");
+        try {
+            form = parser.parse(body);
+        } catch (IOException ex) {
+            if (timings != null) {
+                timings.add("form parse", startTime, parser.getBytesRead(), LoginTimings.describeFailure(ex));
+            }
+            throw ex;
+        } finally {
+            LoginTrace.endSection();
+        }
+        if (timings != null) {
+            String outcome = form != null ? "form found" : "no form";
+            if (parser.isLimitReached()) {
+                outcome += " in " + LegacyLoginFormParser.MAX_STREAM_BYTES + " B";
+            }
+            if (parser.getBytesSkipped() > 0) {
+                outcome += ", " + parser.getBytesSkipped() + " B not downloaded";
+            }
+            timings.add("form parse", startTime, parser.getBytesRead(), outcome);
+        }
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, "form parse", "ms", parser.getParseTimeMillis(), "bytes", parser.getBytesRead(),
+                    "skipped_bytes", parser.getBytesSkipped(), "full_parse", parser.usedFallback(), "form", form != null);
+        }
+        return form;
+    }
+
+    /**
+     * @return True if the response, after any redirects, comes from the portal. Anyone else
+     * serving a page with a secret input would get the login posted to them.
+     */
+    static boolean isServedByPortal(Response response) {
+        boolean served = HOSTS.match(response.request().url().host()) != null;
+        if (!served && LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, "gateway page from elsewhere", "host", response.request().url().host());
+        }
+        return served;
+    }
+
+    private static Request newGetRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .build();
+    }
+
+    private Request newLoginPostRequest(CaptivePortalInfo info, String action, String secret) {
+        HttpUrl url = Objects.requireNonNull(HttpUrl.get(info.homeUrl).resolve(action));
+
+        return new Request.Builder()
+                .url(url)
+                .post(new FormBody.Builder()
+                        .add("secret", secret)
+                        .add("eula", "on")
+                        .build())
+                .build();
+    }
+
+    private LegacyLoginForm fetchLoginForm(PortalSession session, CaptivePortalInfo info) throws IOException {
+        LegacyLoginForm formInfo;
+
+        try (Response gatewayResponse = session.send(newGetRequest(info.homeUrl), "gateway page")) {
+            if (!gatewayResponse.isSuccessful()) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "gateway page failed", "code", gatewayResponse.code());
+                }
+                return null;
+            }
+            if (!isServedByPortal(gatewayResponse)) {
+                return null;
+            }
+
+            try (ResponseBody body = gatewayResponse.body()) {
+                formInfo = parseLoginForm(session.getTimings(), body);
+            }
+
+            if (formInfo == null) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "gateway page without form");
+                }
+                return null;
+            }
+        }
+
+        return formInfo;
+    }
+
+    private boolean postLoginForm(PortalSession session, CaptivePortalInfo info, LegacyLoginForm formInfo) throws IOException {
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, "legacy form", "action_url", formInfo.action, "secret", formInfo.secret);
+        }
+
+        try (Response loginResponse = session.send(newLoginPostRequest(info, formInfo.action, formInfo.secret), "login form post")) {
+            if (!loginResponse.isSuccessful()) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "login form post failed", "code", loginResponse.code());
+                }
+                return false;
+            }
+
+            boolean formServedAgain;
+            try (ResponseBody body = loginResponse.body()) {
+                formServedAgain = parseLoginForm(session.getTimings(), body) != null;
+            }
+            if (formServedAgain) {
+                if (LoginTrace.isEnabled()) {
+                    LoginTrace.event(TAG, "login form served again");
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
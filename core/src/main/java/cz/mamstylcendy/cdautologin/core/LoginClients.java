@@ -0,0 +1,39 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * The HTTP clients and resolver the login engine talks through, all bound to a single network.
+ */
+public class LoginClients {
+
+    public final CustomDNSResolver dns;
+    public final OkHttpClient client;
+    public final OkHttpClient clientNoRedirect;
+    public final ConnectionPool connectionPool;
+
+    /**
+     * @param binding         Binding that pins all sockets to the network, so that they do not
+     *                        leak to cellular data.
+     */
+    public LoginClients(SocketBinding binding, int maxIdleConnections, long keepAliveMinutes) {
+        dns = new CustomDNSResolver(binding);
+        connectionPool = new ConnectionPool(maxIdleConnections, keepAliveMinutes, TimeUnit.MINUTES);
+        client = new OkHttpClient.Builder()
+                .dns(dns)
+                .socketFactory(new HappyEyeballsSocketFactory(binding.getSocketFactory(), dns))
+                .connectionPool(connectionPool)
+                .addInterceptor(new DeadlineInterceptor())
+                //also traces the exchanges, see LoginTrace
+                .eventListenerFactory(TimingEventListener.FACTORY)
+                .build();
+        //derived clients share the pool and dispatcher
+        clientNoRedirect = client
+                .newBuilder()
+                .followRedirects(false)
+                .build();
+    }
+}
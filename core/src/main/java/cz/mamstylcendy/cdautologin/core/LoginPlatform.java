@@ -0,0 +1,49 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * What the login engine needs to know about the network it runs on. Implemented on top of the
+ * Android connectivity APIs by the app, and by fixed values in benchmarks.
+ */
+public interface LoginPlatform {
+
+    boolean isConnectedToWifi();
+
+    /**
+     * @return Nameservers advertised by the network, or null if unknown.
+     */
+    List<InetAddress> getDNSServers();
+
+    /**
+     * @return Address of the default gateway, or null if unknown.
+     */
+    InetAddress getDefaultGateway();
+
+    /**
+     * @return SSID of the Wi-Fi network, or null if unknown.
+     */
+    String getWifiSSID();
+
+    /**
+     * @return BSSID of the Wi-Fi access point, or null if unknown.
+     */
+    String getWifiBSSID();
+
+    /**
+     * @return URL of the captive portal of the network as the system found it, or null if unknown
+     * and the portal has to be found by the connectivity test.
+     */
+    String getCaptivePortalUrl();
+
+    /**
+     * @return Persistent store of portal addresses, or null to always resolve them.
+     */
+    PortalAddressBook getAddressBook();
+
+    /**
+     * @return Persistent store of the portals of known networks, or null to always detect them.
+     */
+    PortalFingerprints getFingerprints();
+}
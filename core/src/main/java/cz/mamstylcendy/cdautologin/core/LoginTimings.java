@@ -0,0 +1,113 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-attempt record of where the time of a login went - DNS, connect, time to first byte, body,
+ * form parsing - so that a slow login can be told apart from a slow network. Entries may be added
+ * from several threads, as the detection probes run in parallel.
+ */
+public class LoginTimings {
+
+    //keeps the serialized form well under the 10 KB limit of WorkManager data
+    private static final int MAX_ENTRIES = 64;
+
+    public static final long NO_BYTES = -1;
+
+    public static final String OUTCOME_OK = "ok";
+
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    public static class Entry {
+        public final String phase;
+        public final long durationMs;
+        //NO_BYTES if not applicable
+        public final long bytes;
+        public final String outcome;
+
+        public Entry(String phase, long durationMs, long bytes, String outcome) {
+            this.phase = phase;
+            this.durationMs = durationMs;
+            this.bytes = bytes;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} at the start of the phase, which ends now.
+     */
+    public void add(String phase, long startNanos, long bytes, String outcome) {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        synchronized (mEntries) {
+            if (mEntries.size() < MAX_ENTRIES) {
+                mEntries.add(new Entry(phase, durationMs, bytes, outcome));
+            }
+        }
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (mEntries) {
+            return new ArrayList<>(mEntries);
+        }
+    }
+
+    public static String describeFailure(Throwable th) {
+        return "failed: " + th.getClass().getSimpleName();
+    }
+
+    /**
+     * @return One line per entry, tab-separated, for passing through WorkManager data.
+     */
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : getEntries()) {
+            sb.append(sanitize(e.phase)).append('\t')
+                    .append(e.durationMs).append('\t')
+                    .append(e.bytes).append('\t')
+                    .append(sanitize(e.outcome)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static LoginTimings deserialize(String serialized) {
+        LoginTimings timings = new LoginTimings();
+        if (serialized != null) {
+            for (String line : serialized.split("\n")) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) {
+                    continue;
+                }
+                try {
+                    timings.mEntries.add(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+                } catch (NumberFormatException ex) {
+                    //skip, the record is best-effort
+                }
+            }
+        }
+        return timings;
+    }
+
+    private static String sanitize(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : getEntries()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(e.phase).append(": ").append(e.durationMs).append(" ms");
+            if (e.bytes != NO_BYTES) {
+                sb.append(String.format(Locale.ROOT, ", %d B", e.bytes));
+            }
+            if (!OUTCOME_OK.equals(e.outcome)) {
+                sb.append(" (").append(e.outcome).append(')');
+            }
+        }
+        return sb.toString();
+    }
+}
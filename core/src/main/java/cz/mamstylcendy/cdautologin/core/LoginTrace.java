@@ -0,0 +1,120 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Tracing of the login engine: sections around each login phase for system traces, and structured
+ * events for a human-readable log of a run. Both do nothing until the platform installs its
+ * implementation, and events are meant to be built only behind {@link #isEnabled()}:
+ * <pre>
+ * if (LoginTrace.isEnabled()) {
+ *     LoginTrace.event(TAG, "gateway page", "code", response.code());
+ * }
+ * </pre>
+ * Values of secret keys are never written out, and query values are stripped from URLs.
+ */
+public final class LoginTrace {
+
+    public interface Sections {
+        void begin(String name);
+
+        void end();
+    }
+
+    public interface Sink {
+        void event(String tag, String message);
+    }
+
+    private static volatile Sections sSections;
+    private static volatile Sink sSink;
+
+    private LoginTrace() {
+
+    }
+
+    /**
+     * @param sections Sections implementation, or null to not emit any. Sections must begin and
+     *                 end on the same thread.
+     */
+    public static void setSections(Sections sections) {
+        sSections = sections;
+    }
+
+    /**
+     * @param sink Where events go, or null to disable them.
+     */
+    public static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    public static boolean isEnabled() {
+        return sSink != null;
+    }
+
+    /**
+     * @param name Constant name of the phase, so that disabled tracing does not allocate.
+     */
+    public static void beginSection(String name) {
+        Sections sections = sSections;
+        if (sections != null) {
+            sections.begin(name);
+        }
+    }
+
+    public static void endSection() {
+        Sections sections = sSections;
+        if (sections != null) {
+            sections.end();
+        }
+    }
+
+    /**
+     * @param fields Alternating keys and values.
+     */
+    public static void event(String tag, String name, Object... fields) {
+        Sink sink = sSink;
+        if (sink != null) {
+            sink.event(tag, format(name, fields));
+        }
+    }
+
+    static String format(String name, Object[] fields) {
+        StringBuilder sb = new StringBuilder(name);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            String key = String.valueOf(fields[i]);
+            sb.append(' ').append(key).append('=').append(redact(key, fields[i + 1]));
+        }
+        return sb.toString();
+    }
+
+    private static String redact(String key, Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (isSecretKey(key)) {
+            return "<" + String.valueOf(value).length() + " chars>";
+        }
+        if (value instanceof HttpUrl) {
+            return stripQueryValues((HttpUrl) value);
+        }
+        if (key.endsWith("url") || key.equals("location")) {
+            HttpUrl url = HttpUrl.parse(String.valueOf(value));
+            //relative locations carry no query worth keeping either
+            return url != null ? stripQueryValues(url) : String.valueOf(value).split("\\?", 2)[0];
+        }
+        return String.valueOf(value);
+    }
+
+    private static boolean isSecretKey(String key) {
+        return key.equals("secret") || key.equals("password") || key.equals("token") || key.equals("cookie");
+    }
+
+    //captive redirects tend to carry the MAC and IP address of the client
+    private static String stripQueryValues(HttpUrl url) {
+        HttpUrl.Builder builder = url.newBuilder().query(null);
+        for (String name : url.queryParameterNames()) {
+            builder.addQueryParameter(name, "_");
+        }
+        return builder.build().toString();
+    }
+}
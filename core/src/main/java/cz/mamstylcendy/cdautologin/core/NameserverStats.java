@@ -0,0 +1,78 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency and failure record of the nameservers we have queried, used to decide which one gets
+ * asked first the next time. Shared by all resolvers in the process.
+ */
+public class NameserverStats {
+
+    private static final NameserverStats INSTANCE = new NameserverStats();
+
+    //servers we know nothing about are assumed to be mediocre, so proven fast ones go first
+    private static final long UNKNOWN_LATENCY_MS = 500;
+    private static final long FAILURE_PENALTY_MS = 2000;
+    private static final int MAX_PENALIZED_FAILURES = 5;
+
+    private final Map<InetAddress, Entry> mEntries = new HashMap<>();
+
+    public static NameserverStats getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void recordSuccess(InetAddress server, long latencyMs) {
+        Entry entry = getOrCreateEntry(server);
+        if (entry.successCount == 0) {
+            entry.averageLatencyMs = latencyMs;
+        } else {
+            //exponential moving average, recent samples matter more on a moving train
+            entry.averageLatencyMs = (entry.averageLatencyMs * 3 + latencyMs) / 4;
+        }
+        entry.successCount++;
+        entry.consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure(InetAddress server) {
+        getOrCreateEntry(server).consecutiveFailures++;
+    }
+
+    private Entry getOrCreateEntry(InetAddress server) {
+        Entry entry = mEntries.get(server);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(server, entry);
+        }
+        return entry;
+    }
+
+    private long getScore(InetAddress server) {
+        Entry entry = mEntries.get(server);
+        if (entry == null) {
+            return UNKNOWN_LATENCY_MS;
+        }
+        long latency = entry.successCount > 0 ? entry.averageLatencyMs : UNKNOWN_LATENCY_MS;
+        return latency + Math.min(entry.consecutiveFailures, MAX_PENALIZED_FAILURES) * FAILURE_PENALTY_MS;
+    }
+
+    /**
+     * @return The servers sorted from the most to the least promising. Servers with equal score
+     * keep their original order.
+     */
+    public synchronized List<InetAddress> order(List<InetAddress> servers) {
+        List<InetAddress> ordered = new ArrayList<>(servers);
+        ordered.sort(Comparator.comparingLong(this::getScore));
+        return ordered;
+    }
+
+    private static class Entry {
+        long averageLatencyMs;
+        int successCount;
+        int consecutiveFailures;
+    }
+}
@@ -0,0 +1,109 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The current CD Wi-Fi portal. Logging in is a single idempotent call to its API, which redirects
+ * to the page given as the target on success.
+ */
+public class PassengeraPortalHandler implements PortalHandler {
+
+    private static final String TAG = PassengeraPortalHandler.class.getSimpleName();
+
+    public static final PassengeraPortalHandler INSTANCE = new PassengeraPortalHandler();
+
+    private static final String[] HOST_SUFFIXES = {"cdwifi.cz"};
+
+    private static final String SUCCESS_URL = "http://julka.je/nejkrasnejsi-na-svete";
+    private static final String FAILURE_URL = "http://mff.cuni.cz/";
+
+    private PassengeraPortalHandler() {
+
+    }
+
+    @Override
+    public String getName() {
+        return CDCaptiveType.CDWIFI_PASSENGERA.name();
+    }
+
+    @Override
+    public CDCaptiveType getType() {
+        return CDCaptiveType.CDWIFI_PASSENGERA;
+    }
+
+    @Override
+    public String[] getHostSuffixes() {
+        return HOST_SUFFIXES.clone();
+    }
+
+    @Override
+    public CaptivePortalInfo detect(PortalSession session, String location) throws IOException {
+        //the portal serves its gateway page, and the legacy form is not on it
+        GatewayPage page = session.fetchGatewayPage(location);
+        if (page == null || PortalClassifier.classifyPortalPage(page.loginForm) != getType()) {
+            return null;
+        }
+        return new CaptivePortalInfo(this, location);
+    }
+
+    @Override
+    public boolean login(PortalSession session, CaptivePortalInfo info) throws IOException {
+        try (Response loginResp = session.sendNoRedirect(newLoginRequest(), "passengera authenticate")) {
+            return isLoginAccepted(loginResp);
+        }
+    }
+
+    @Override
+    public boolean verify(PortalSession session, CaptivePortalInfo info) {
+        //the API only redirects to the success page once the session is authorized
+        return true;
+    }
+
+    @Override
+    public boolean supportsSpeculativeLogin() {
+        return true;
+    }
+
+    @Override
+    public Request newSpeculativeLoginRequest() {
+        return newLoginRequest();
+    }
+
+    @Override
+    public boolean isSpeculativeLoginAccepted(Response response) {
+        return isLoginAccepted(response);
+    }
+
+    static Request newLoginRequest() {
+        return new Request.Builder()
+                .url(HttpUrl.get("http://cdwifi.cz/portal/api/vehicle/gateway/user/authenticate?ahoj=ceskedrahy")
+                        .newBuilder()
+                        .addQueryParameter("category", "internet")
+                        .addQueryParameter("url", SUCCESS_URL)
+                        .addQueryParameter("onerror", FAILURE_URL)
+                        .build())
+                .build();
+    }
+
+    static boolean isLoginAccepted(Response loginResp) {
+        if (loginResp.code() != 307) {
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "passengera unexpected code", "code", loginResp.code());
+            }
+            return false;
+        }
+
+        String location = loginResp.header("Location");
+        if (!SUCCESS_URL.equals(location)) {
+            if (LoginTrace.isEnabled()) {
+                LoginTrace.event(TAG, "passengera bad location", "location", location);
+            }
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the addresses that portal hostnames resolved to on a given network, so that a cold
+ * worker process does not have to wait for DNS before its first request.
+ * <p>
+ * The store is a small binary file that is replaced atomically on every change, loaded on first
+ * use and bounded to {@link #MAX_ENTRIES} least recently used entries.
+ */
+public class PortalAddressBook {
+
+    private static final String TAG = PortalAddressBook.class.getSimpleName();
+
+    public static final String FILE_NAME = "portal_addresses.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_ENTRIES = 64;
+
+    private final File mFile;
+    private LinkedHashMap<String, List<InetAddress>> mEntries;
+
+    public PortalAddressBook(File file) {
+        mFile = file;
+    }
+
+    private static String makeKey(String networkKey, String hostname) {
+        return networkKey + '\n' + hostname;
+    }
+
+    public synchronized List<InetAddress> get(String networkKey, String hostname) {
+        return getEntries().get(makeKey(networkKey, hostname));
+    }
+
+    public synchronized void put(String networkKey, String hostname, List<InetAddress> addresses) {
+        String key = makeKey(networkKey, hostname);
+        if (!addresses.equals(getEntries().put(key, addresses))) {
+            save();
+        }
+    }
+
+    public synchronized void remove(String networkKey, String hostname) {
+        if (getEntries().remove(makeKey(networkKey, hostname)) != null) {
+            save();
+        }
+    }
+
+    private Map<String, List<InetAddress>> getEntries() {
+        if (mEntries == null) {
+            mEntries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<InetAddress>> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+            try {
+                load();
+            } catch (IOException ex) {
+                //a damaged store is only a missed optimization, start over
+                CoreLog.w(TAG, "Could not load portal address book", ex);
+                mEntries.clear();
+            }
+        }
+        return mEntries;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = DataFiles.openInput(mFile)) {
+            if (in == null) {
+                //nothing stored yet
+                return;
+            }
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                int addressCount = in.readUnsignedByte();
+                List<InetAddress> addresses = new ArrayList<>(addressCount);
+                for (int j = 0; j < addressCount; j++) {
+                    byte[] raw = new byte[in.readUnsignedByte()];
+                    in.readFully(raw);
+                    addresses.add(InetAddress.getByAddress(raw));
+                }
+                mEntries.put(key, addresses);
+            }
+        }
+    }
+
+    private void save() {
+        try {
+            DataFiles.replace(mFile, out -> {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(mEntries.size());
+                for (Map.Entry<String, List<InetAddress>> entry : mEntries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    List<InetAddress> addresses = entry.getValue();
+                    int addressCount = Math.min(addresses.size(), 255);
+                    out.writeByte(addressCount);
+                    for (int i = 0; i < addressCount; i++) {
+                        byte[] raw = addresses.get(i).getAddress();
+                        out.writeByte(raw.length);
+                        out.write(raw);
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            CoreLog.w(TAG, "Could not save portal address book", ex);
+        }
+    }
+}
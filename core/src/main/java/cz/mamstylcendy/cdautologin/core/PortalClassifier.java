@@ -0,0 +1,74 @@
+package cz.mamstylcendy.cdautologin.core;
+
+/**
+ * Tells captive portals apart from the responses of the detection probes. Kept free of I/O, so
+ * that the rules can be benchmarked on their own.
+ */
+public final class PortalClassifier {
+
+    private PortalClassifier() {
+
+    }
+
+    /**
+     * @param ssid SSID as reported by the system, quoted or not, or null if hidden.
+     * @return True if the network is named like the CD Wi-Fi, which says nothing about its portal.
+     */
+    public static boolean looksLikeCdWifiSsid(String ssid) {
+        if (ssid == null) {
+            return false;
+        }
+        //"CDWiFi", "CD WiFi", "CD-Wi-Fi" and so on
+        StringBuilder letters = new StringBuilder(ssid.length());
+        for (int i = 0; i < ssid.length(); i++) {
+            char c = ssid.charAt(i);
+            if (Character.isLetter(c)) {
+                letters.append(Character.toLowerCase(c));
+            }
+        }
+        return letters.indexOf("cdwifi") != -1;
+    }
+
+    /**
+     * @param code     Status code of the connectivity test.
+     * @param location Its Location header, if any.
+     * @param registry Handlers of the supported portals.
+     * @return {@link CDCaptiveType#NONE} or {@link CDCaptiveType#UNKNOWN}, or null if the test was
+     * redirected to a host of a registered handler, which has to tell which portal it is.
+     */
+    public static CDCaptiveType classifyConnectivityProbe(int code, String location, PortalRegistry registry) {
+        if (code == 204) {
+            return CDCaptiveType.NONE;
+        }
+        if (registry.findHandlers(location).isEmpty()) {
+            return CDCaptiveType.UNKNOWN;
+        }
+        return null;
+    }
+
+    /**
+     * @param contentType   Content-Type of the portal page, or null if not given.
+     * @param contentLength Its Content-Length, or -1 if not given.
+     * @return False if the response cannot carry the legacy login form, so that its body does not
+     * have to be read at all.
+     */
+    public static boolean mayCarryLoginForm(String contentType, long contentLength) {
+        if (contentLength == 0) {
+            return false;
+        }
+        //an API answer or an image, the form is only ever served on a page
+        return contentType == null
+                || contentType.regionMatches(true, 0, "text/html", 0, 9)
+                || contentType.regionMatches(true, 0, "application/xhtml", 0, 17);
+    }
+
+    /**
+     * @param loginForm The legacy login form found on the portal page, or null if the page was
+     *                  read to its end or to {@link LegacyLoginFormParser#MAX_STREAM_BYTES}
+     *                  without finding one.
+     */
+    public static CDCaptiveType classifyPortalPage(LegacyLoginForm loginForm) {
+        //the legacy form is only served before logging in, so that is captive CD Wi-Fi for sure
+        return loginForm != null ? CDCaptiveType.CDWIFI_BASIC : CDCaptiveType.CDWIFI_PASSENGERA;
+    }
+}
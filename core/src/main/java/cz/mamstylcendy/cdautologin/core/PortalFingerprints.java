@@ -0,0 +1,174 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which portal a network was last confirmed to run, so that a known network can be
+ * logged in to without detecting the portal first.
+ * <p>
+ * Networks are told apart by SSID, the vendor part of the BSSID and the gateway address. Every
+ * successful login raises the confidence in the entry, which otherwise halves every
+ * {@link #CONFIDENCE_HALF_LIFE_MS}. Entries whose confidence drops below
+ * {@link #MIN_CONFIDENCE} are dropped, as are entries that led to a failed login. The store is
+ * persisted the same way as {@link PortalAddressBook}.
+ */
+public class PortalFingerprints {
+
+    private static final String TAG = PortalFingerprints.class.getSimpleName();
+
+    public static final String FILE_NAME = "portal_fingerprints.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_ENTRIES = 32;
+
+    private static final long CONFIDENCE_HALF_LIFE_MS = TimeUnit.DAYS.toMillis(7);
+    //a single confirmation is trusted for one half-life, two or more for two
+    private static final float CONFIRM_STEP = 0.5f;
+    private static final float MIN_CONFIDENCE = 0.25f;
+    private static final float MAX_CONFIDENCE = 1f;
+
+    //locally administered placeholder returned when the app may not see the BSSID
+    private static final String HIDDEN_BSSID = "02:00:00:00:00:00";
+
+    private final File mFile;
+    private LinkedHashMap<String, Entry> mEntries;
+
+    public static class Entry {
+        //name of the PortalHandler, the built-in ones are named after their CDCaptiveType
+        public final String handler;
+        //null if the portal did not give one
+        public final String homeUrl;
+        final float confidence;
+        final long confirmedAt;
+
+        Entry(String handler, String homeUrl, float confidence, long confirmedAt) {
+            this.handler = handler;
+            this.homeUrl = homeUrl;
+            this.confidence = confidence;
+            this.confirmedAt = confirmedAt;
+        }
+
+        float getConfidence(long now) {
+            //a clock set back must not make the entry more trusted
+            long age = Math.max(0, now - confirmedAt);
+            return (float) (confidence * Math.pow(0.5, (double) age / CONFIDENCE_HALF_LIFE_MS));
+        }
+    }
+
+    public PortalFingerprints(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return Key identifying the network, or null if too little is known about it to tell it
+     * apart from other networks.
+     */
+    public static String makeKey(String ssid, String bssid, InetAddress gateway) {
+        if (gateway == null) {
+            return null;
+        }
+        String bssidPrefix = null;
+        if (bssid != null && !HIDDEN_BSSID.equals(bssid) && bssid.length() >= 8) {
+            //the access points along a train differ in the last octets only
+            bssidPrefix = bssid.substring(0, 8).toLowerCase(Locale.ROOT);
+        }
+        return ssid + '|' + bssidPrefix + '|' + gateway.getHostAddress();
+    }
+
+    /**
+     * @return The portal last confirmed on the network, or null if there is none worth trusting.
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = getEntries().get(key);
+        if (entry != null && entry.getConfidence(System.currentTimeMillis()) < MIN_CONFIDENCE) {
+            getEntries().remove(key);
+            save();
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records a successful login to the portal on the network.
+     */
+    public synchronized void confirm(String key, String handler, String homeUrl) {
+        long now = System.currentTimeMillis();
+        Entry previous = getEntries().get(key);
+        float confidence = CONFIRM_STEP;
+        if (previous != null && previous.handler.equals(handler)) {
+            confidence = Math.min(MAX_CONFIDENCE, previous.getConfidence(now) + CONFIRM_STEP);
+        }
+        getEntries().put(key, new Entry(handler, homeUrl, confidence, now));
+        save();
+    }
+
+    public synchronized void remove(String key) {
+        if (getEntries().remove(key) != null) {
+            save();
+        }
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (mEntries == null) {
+            mEntries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PortalFingerprints.Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+            try {
+                load();
+            } catch (IOException ex) {
+                //a damaged store only costs a detection, start over
+                CoreLog.w(TAG, "Could not load portal fingerprints", ex);
+                mEntries.clear();
+            }
+        }
+        return mEntries;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = DataFiles.openInput(mFile)) {
+            if (in == null) {
+                //nothing stored yet
+                return;
+            }
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String handler = in.readUTF();
+                String homeUrl = in.readUTF();
+                float confidence = in.readFloat();
+                long confirmedAt = in.readLong();
+                mEntries.put(key, new Entry(handler, homeUrl.isEmpty() ? null : homeUrl, confidence, confirmedAt));
+            }
+        }
+    }
+
+    private void save() {
+        try {
+            DataFiles.replace(mFile, out -> {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(mEntries.size());
+                for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().handler);
+                    out.writeUTF(entry.getValue().homeUrl != null ? entry.getValue().homeUrl : "");
+                    out.writeFloat(entry.getValue().confidence);
+                    out.writeLong(entry.getValue().confirmedAt);
+                }
+            });
+        } catch (IOException ex) {
+            CoreLog.w(TAG, "Could not save portal fingerprints", ex);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.IOException;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Support for one kind of captive portal. Handlers are registered in a {@link PortalRegistry},
+ * which hands them the redirects of the connectivity test that lead to their hosts.
+ * <p>
+ * A handler keeps no state of its own, everything it learns about the portal goes into the
+ * {@link CaptivePortalInfo} it detects, and is given back to it for the login.
+ */
+public interface PortalHandler {
+
+    /**
+     * @return Stable name of the handler, persisted with the networks the portal was found on.
+     */
+    String getName();
+
+    /**
+     * @return Type reported for the portals of the handler.
+     */
+    CDCaptiveType getType();
+
+    /**
+     * @return Domains whose hosts the portal runs on, subdomains included.
+     */
+    String[] getHostSuffixes();
+
+    /**
+     * @param location Where the connectivity test was redirected to, on one of the hosts of the
+     *                 handler.
+     * @return The portal, or null if it is not the one of the handler after all, in which case the
+     * next handler registered for the host is asked.
+     */
+    CaptivePortalInfo detect(PortalSession session, String location) throws IOException;
+
+    /**
+     * @param info As detected by the handler, or remembered from an earlier login.
+     * @return False if the portal rejected the login.
+     */
+    boolean login(PortalSession session, CaptivePortalInfo info) throws IOException;
+
+    /**
+     * Called after the portal accepted the login.
+     *
+     * @return True if the network is no longer captive.
+     */
+    default boolean verify(PortalSession session, CaptivePortalInfo info) throws IOException {
+        return session.checkConnectivity();
+    }
+
+    /**
+     * @return True if the login is a single idempotent call, which may be sent while detection is
+     * still running, see {@link CDWiFiLoginImpl#setSpeculativeLogin(boolean)}. It is thrown away
+     * unless detection ends up with the portal of the handler.
+     */
+    default boolean supportsSpeculativeLogin() {
+        return false;
+    }
+
+    /**
+     * Only asked if {@link #supportsSpeculativeLogin()}.
+     *
+     * @return The call that logs in, sent without following redirects.
+     */
+    default Request newSpeculativeLoginRequest() {
+        throw new UnsupportedOperationException(getName() + " cannot log in ahead of detection");
+    }
+
+    /**
+     * @param response Response to {@link #newSpeculativeLoginRequest()}.
+     * @return True if the portal accepted the login.
+     */
+    default boolean isSpeculativeLoginAccepted(Response response) {
+        throw new UnsupportedOperationException(getName() + " cannot log in ahead of detection");
+    }
+}
@@ -0,0 +1,106 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The portal handlers known to the login engine, looked up by the host that the connectivity test
+ * was redirected to. Immutable, additional handlers are added with {@link #newBuilder()}.
+ */
+public class PortalRegistry {
+
+    //either order works, each handler tells its own portal from the gateway page
+    private static final PortalRegistry DEFAULT = new Builder()
+            .add(LegacyPortalHandler.INSTANCE)
+            .add(PassengeraPortalHandler.INSTANCE)
+            .build();
+
+    private final List<PortalHandler> mHandlers;
+    private final Map<String, PortalHandler> mByName;
+    private final HostSuffixMatcher<List<PortalHandler>> mMatcher;
+
+    private PortalRegistry(Builder builder) {
+        mHandlers = Collections.unmodifiableList(new ArrayList<>(builder.mHandlers));
+        mByName = new HashMap<>(builder.mByName);
+        HostSuffixMatcher.Builder<List<PortalHandler>> matcher = new HostSuffixMatcher.Builder<>();
+        for (PortalHandler handler : mHandlers) {
+            for (String suffix : handler.getHostSuffixes()) {
+                List<PortalHandler> handlers = matcher.get(suffix);
+                if (handlers == null) {
+                    handlers = new ArrayList<>(1);
+                    matcher.put(suffix, handlers);
+                }
+                handlers.add(handler);
+            }
+        }
+        mMatcher = matcher.build();
+    }
+
+    /**
+     * @return Registry with the CD Wi-Fi portals only.
+     */
+    public static PortalRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param url Absolute URL, usually the Location of the connectivity test, or null.
+     * @return Handlers registered for the host of the URL, in the order they were added, or an
+     * empty list if there are none.
+     */
+    public List<PortalHandler> findHandlers(String url) {
+        List<PortalHandler> handlers = mMatcher.matchUrl(url);
+        //never modified once built
+        return handlers != null ? handlers : Collections.emptyList();
+    }
+
+    /**
+     * @return The handler with the name, or null if there is none, such as when it was remembered
+     * by a build that had it registered.
+     */
+    public PortalHandler getHandler(String name) {
+        return mByName.get(name);
+    }
+
+    public List<PortalHandler> getHandlers() {
+        return mHandlers;
+    }
+
+    public Builder newBuilder() {
+        Builder builder = new Builder();
+        for (PortalHandler handler : mHandlers) {
+            builder.add(handler);
+        }
+        return builder;
+    }
+
+    public static class Builder {
+
+        private final List<PortalHandler> mHandlers = new ArrayList<>();
+        private final Map<String, PortalHandler> mByName = new HashMap<>();
+
+        private Builder() {
+
+        }
+
+        /**
+         * Adds the handler after the ones added before, which get to detect their portal first if
+         * they share a host with it.
+         */
+        public Builder add(PortalHandler handler) {
+            if (mByName.containsKey(handler.getName())) {
+                throw new IllegalArgumentException("Duplicate portal handler " + handler.getName());
+            }
+            mHandlers.add(handler);
+            mByName.put(handler.getName(), handler);
+            return this;
+        }
+
+        public PortalRegistry build() {
+            return new PortalRegistry(this);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.IOException;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * What a {@link PortalHandler} talks to the portal through. All calls go over the network being
+ * logged in to, share the deadline of the login and are timed and traced under the given phase.
+ */
+public interface PortalSession {
+
+    /**
+     * Sends the request, following redirects. The response has to be closed by the caller.
+     *
+     * @param phase Step of the login that the call belongs to, reported if it exhausts the deadline.
+     */
+    Response send(Request request, String phase) throws IOException;
+
+    /**
+     * Same as {@link #send(Request, String)}, but returns redirects as they are.
+     */
+    Response sendNoRedirect(Request request, String phase) throws IOException;
+
+    /**
+     * @return True if the connectivity test gets through, that is, the portal no longer holds the
+     * network captive.
+     */
+    boolean checkConnectivity() throws IOException;
+
+    /**
+     * Fetches the page that the connectivity test was redirected to, and looks for the legacy login
+     * form on it. The handlers asked about one redirect share a single fetch.
+     *
+     * @return The page, or null if it did not come from the CD Wi-Fi portal, or not successfully.
+     */
+    GatewayPage fetchGatewayPage(String location) throws IOException;
+
+    /**
+     * @return Record of the phases of the login, or null if it is not being timed.
+     */
+    LoginTimings getTimings();
+}
@@ -0,0 +1,28 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+import javax.net.SocketFactory;
+
+/**
+ * Decides which network the sockets of the login engine go through.
+ */
+public interface SocketBinding {
+
+    SocketBinding UNBOUND = new SocketBinding() {
+        @Override
+        public SocketFactory getSocketFactory() {
+            return SocketFactory.getDefault();
+        }
+
+        @Override
+        public void bindDatagramSocket(DatagramSocket socket) {
+
+        }
+    };
+
+    SocketFactory getSocketFactory();
+
+    void bindDatagramSocket(DatagramSocket socket) throws IOException;
+}
@@ -0,0 +1,51 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.Locale;
+
+/**
+ * Outcomes of the speculative Passengera logins sent during detection, shared by all logins in the
+ * process. See {@link CDWiFiLoginImpl#setSpeculativeLogin(boolean)}.
+ */
+public class SpeculationStats {
+
+    private static final SpeculationStats INSTANCE = new SpeculationStats();
+
+    //detection confirmed Passengera and the speculative login was used
+    private int mHits;
+    //detection found another portal, the speculative login was thrown away
+    private int mMisses;
+    //detection confirmed Passengera, but the speculative login failed and was sent again
+    private int mFailures;
+    private long mSavedMillis;
+
+    public static SpeculationStats getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void recordHit(long savedMillis) {
+        mHits++;
+        mSavedMillis += savedMillis;
+    }
+
+    public synchronized void recordMiss() {
+        mMisses++;
+    }
+
+    public synchronized void recordFailure() {
+        mFailures++;
+    }
+
+    public synchronized double getHitRate() {
+        int total = mHits + mMisses + mFailures;
+        return total != 0 ? (double) mHits / total : 0;
+    }
+
+    public synchronized long getAverageSavedMillis() {
+        return mHits != 0 ? mSavedMillis / mHits : 0;
+    }
+
+    public synchronized String describe() {
+        return String.format(Locale.ROOT, "%d hits, %d misses, %d failed, hit rate %.0f %%, avg %d ms saved",
+                mHits, mMisses, mFailures, getHitRate() * 100, getAverageSavedMillis());
+    }
+}
@@ -0,0 +1,163 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Records the connect, time to first byte and body phases of a call into the {@link LoginTimings}
+ * attached to its request as a {@link Tag}, and reports the exchange to {@link LoginTrace} while
+ * tracing is enabled. Calls without the tag are not instrumented at all.
+ */
+public class TimingEventListener extends EventListener {
+
+    private static final String TAG = TimingEventListener.class.getSimpleName();
+
+    public static final EventListener.Factory FACTORY = call -> {
+        Tag tag = call.request().tag(Tag.class);
+        return tag != null ? new TimingEventListener(tag) : EventListener.NONE;
+    };
+
+    public static class Tag {
+        //null if only tracing
+        final LoginTimings timings;
+        final String phase;
+        //null if the call neither opens warm connections nor is credited for picking one up
+        final WarmConnections warmConnections;
+        //the call only opens a connection for later calls
+        final boolean opensWarm;
+
+        public Tag(LoginTimings timings, String phase) {
+            this(timings, phase, null, false);
+        }
+
+        Tag(LoginTimings timings, String phase, WarmConnections warmConnections, boolean opensWarm) {
+            this.timings = timings;
+            this.phase = phase;
+            this.warmConnections = warmConnections;
+            this.opensWarm = opensWarm;
+        }
+    }
+
+    private final LoginTimings mTimings;
+    private final String mPhase;
+    private final WarmConnections mWarmConnections;
+    private final boolean mOpensWarm;
+
+    private long mCallStart;
+    private long mConnectStart;
+    private long mConnectEnd;
+    private long mRequestStart;
+    private long mBodyStart;
+    private long mResponseBytes;
+
+    private TimingEventListener(Tag tag) {
+        mTimings = tag.timings;
+        mPhase = tag.phase;
+        mWarmConnections = tag.warmConnections;
+        mOpensWarm = tag.opensWarm;
+    }
+
+    private void add(String subPhase, long startNanos, long bytes, String outcome) {
+        if (mTimings != null) {
+            mTimings.add(mPhase + " " + subPhase, startNanos, bytes, outcome);
+        }
+    }
+
+    private long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void callStart(@NonNull Call call) {
+        mCallStart = System.nanoTime();
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, mPhase + " start", "method", call.request().method(), "url", call.request().url());
+        }
+    }
+
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+        mConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, Protocol protocol) {
+        mConnectEnd = System.nanoTime();
+        add("connect " + inetSocketAddress.getAddress().getHostAddress(), mConnectStart, LoginTimings.NO_BYTES, LoginTimings.OUTCOME_OK);
+    }
+
+    @Override
+    public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, Protocol protocol, @NonNull IOException ioe) {
+        add("connect " + inetSocketAddress.getAddress().getHostAddress(), mConnectStart, LoginTimings.NO_BYTES, LoginTimings.describeFailure(ioe));
+    }
+
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        if (mWarmConnections == null) {
+            return;
+        }
+        if (mOpensWarm) {
+            if (mConnectEnd != 0) {
+                mWarmConnections.add(connection, mConnectEnd - mCallStart);
+            }
+            return;
+        }
+        //no connect of its own, so the connection came from the pool
+        long setupNanos = mConnectStart == 0 ? mWarmConnections.take(connection) : -1;
+        if (setupNanos >= 0) {
+            add("connect", System.nanoTime(), LoginTimings.NO_BYTES,
+                    "warm, saved " + TimeUnit.NANOSECONDS.toMillis(setupNanos) + " ms");
+        }
+    }
+
+    @Override
+    public void requestHeadersStart(@NonNull Call call) {
+        mRequestStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+        add("first byte", mRequestStart, LoginTimings.NO_BYTES, "HTTP " + response.code());
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, mPhase + " response", "code", response.code(), "location", response.header("Location"),
+                    "content_type", response.header("Content-Type"), "ttfb_ms", millisSince(mRequestStart));
+        }
+    }
+
+    @Override
+    public void responseBodyStart(@NonNull Call call) {
+        mBodyStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseBodyEnd(@NonNull Call call, long byteCount) {
+        mResponseBytes += byteCount;
+        add("body", mBodyStart, byteCount, LoginTimings.OUTCOME_OK);
+    }
+
+    @Override
+    public void callEnd(@NonNull Call call) {
+        add("total", mCallStart, mResponseBytes, LoginTimings.OUTCOME_OK);
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, mPhase + " end", "ms", millisSince(mCallStart), "bytes", mResponseBytes);
+        }
+    }
+
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+        add("total", mCallStart, mResponseBytes, LoginTimings.describeFailure(ioe));
+        if (LoginTrace.isEnabled()) {
+            LoginTrace.event(TAG, mPhase + " failed", "ms", millisSince(mCallStart), "error", ioe);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Trace sink that appends events to a file instead of the log. Once the file grows past its limit
+ * it is rotated, so at most two files are ever kept.
+ */
+public class TraceFile implements LoginTrace.Sink {
+
+    private static final String TAG = TraceFile.class.getSimpleName();
+
+    private final File mFile;
+    private final File mRotatedFile;
+    private final long mMaxBytes;
+
+    public TraceFile(File file, long maxBytes) {
+        mFile = file;
+        mRotatedFile = new File(file.getPath() + ".1");
+        mMaxBytes = maxBytes;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public synchronized void event(String tag, String message) {
+        byte[] line = String.format(Locale.ROOT, "%tF %<tT.%<tL %s %s: %s%n",
+                System.currentTimeMillis(), Thread.currentThread().getName(), tag, message).getBytes(StandardCharsets.UTF_8);
+        if (mFile.length() + line.length > mMaxBytes) {
+            if (mRotatedFile.exists() && !mRotatedFile.delete()) {
+                CoreLog.w(TAG, "Could not delete " + mRotatedFile);
+            }
+            if (!mFile.renameTo(mRotatedFile)) {
+                mFile.delete();
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            out.write(line);
+        } catch (IOException ex) {
+            CoreLog.w(TAG, "Could not append to " + mFile, ex);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cz.mamstylcendy.cdautologin.core;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import okhttp3.Connection;
+
+/**
+ * Connections opened ahead of the requests that need them, along with what opening each one took,
+ * so that the call which picks one up from the pool can tell the time it saved. See
+ * {@link CDWiFiLoginImpl#prefetch()}.
+ */
+class WarmConnections {
+
+    private final Map<Connection, Long> mSetupNanos = new IdentityHashMap<>();
+
+    /**
+     * @param setupNanos Time from the start of the call that opened the connection until it was
+     *                   connected, the DNS lookup included.
+     */
+    synchronized void add(Connection connection, long setupNanos) {
+        mSetupNanos.put(connection, setupNanos);
+    }
+
+    /**
+     * @return The setup time of the connection if it was opened ahead and not used since, or -1.
+     */
+    synchronized long take(Connection connection) {
+        Long setupNanos = mSetupNanos.remove(connection);
+        return setupNanos != null ? setupNanos : -1;
+    }
+
+    synchronized void clear() {
+        mSetupNanos.clear();
+    }
+}
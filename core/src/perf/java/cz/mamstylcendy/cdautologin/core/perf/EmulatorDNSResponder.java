@@ -0,0 +1,107 @@
+package cz.mamstylcendy.cdautologin.core.perf;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers every A query with the address of the emulator and every other query with no records,
+ * like the DNS forwarder of the train router before login.
+ */
+public class EmulatorDNSResponder implements Closeable {
+
+    private final DatagramSocket mSocket;
+    private final InetAddress mAnswer;
+    private final NetworkConditions mConditions;
+    private final Random mRandom;
+    private final ScheduledExecutorService mReplyScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Thread mThread;
+
+    /**
+     * @param port Port to listen on, 0 for any.
+     */
+    public EmulatorDNSResponder(InetAddress bindAddress, int port, InetAddress answer, NetworkConditions conditions, Random random) throws IOException {
+        mSocket = new DatagramSocket(new InetSocketAddress(bindAddress, port));
+        mAnswer = answer;
+        mConditions = conditions;
+        mRandom = random;
+        mThread = new Thread(this::serve, "EmulatorDNS-" + bindAddress.getHostAddress());
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public int getPort() {
+        return mSocket.getLocalPort();
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[512];
+        while (!mSocket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            Message query;
+            try {
+                mSocket.receive(packet);
+                byte[] data = new byte[packet.getLength()];
+                System.arraycopy(buffer, 0, data, 0, data.length);
+                query = new Message(data);
+            } catch (IOException ex) {
+                continue;
+            }
+            if (randomChance(mConditions.dnsLossRate)) {
+                continue;
+            }
+            byte[] response = answer(query).toWire();
+            InetAddress client = packet.getAddress();
+            int clientPort = packet.getPort();
+            mReplyScheduler.schedule(() -> {
+                try {
+                    mSocket.send(new DatagramPacket(response, response.length, client, clientPort));
+                } catch (IOException ex) {
+                    //closed meanwhile
+                }
+            }, mConditions.latencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean randomChance(double rate) {
+        synchronized (mRandom) {
+            return rate > 0 && mRandom.nextDouble() < rate;
+        }
+    }
+
+    private Message answer(Message query) {
+        Record question = query.getQuestion();
+        Message response = new Message(query.getHeader().getID());
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.RD);
+        response.getHeader().setFlag(Flags.RA);
+        response.getHeader().setRcode(Rcode.NOERROR);
+        response.addRecord(question, Section.QUESTION);
+        if (question.getType() == Type.A) {
+            response.addRecord(new ARecord(question.getName(), DClass.IN, 60, mAnswer), Section.ANSWER);
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        mSocket.close();
+        mReplyScheduler.shutdownNow();
+    }
+}
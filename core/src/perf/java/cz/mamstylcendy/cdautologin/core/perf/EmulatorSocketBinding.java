@@ -0,0 +1,78 @@
+package cz.mamstylcendy.cdautologin.core.perf;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import javax.net.SocketFactory;
+
+import cz.mamstylcendy.cdautologin.core.SocketBinding;
+
+/**
+ * Sends all plain HTTP connections to the port of the emulator instead of 80, which cannot be
+ * listened on without privileges.
+ */
+public class EmulatorSocketBinding implements SocketBinding {
+
+    private static final int HTTP_PORT = 80;
+
+    private final int mEmulatorPort;
+
+    public EmulatorSocketBinding(int emulatorPort) {
+        mEmulatorPort = emulatorPort;
+    }
+
+    @Override
+    public SocketFactory getSocketFactory() {
+        return new SocketFactory() {
+            @Override
+            public Socket createSocket() {
+                return new RedirectingSocket();
+            }
+
+            @Override
+            public Socket createSocket(String host, int port) throws IOException {
+                return createSocket(InetAddress.getByName(host), port);
+            }
+
+            @Override
+            public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+                return createSocket(InetAddress.getByName(host), port, localAddress, localPort);
+            }
+
+            @Override
+            public Socket createSocket(InetAddress address, int port) throws IOException {
+                Socket socket = createSocket();
+                socket.connect(new InetSocketAddress(address, port));
+                return socket;
+            }
+
+            @Override
+            public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+                Socket socket = createSocket();
+                socket.bind(new InetSocketAddress(localAddress, localPort));
+                socket.connect(new InetSocketAddress(address, port));
+                return socket;
+            }
+        };
+    }
+
+    @Override
+    public void bindDatagramSocket(DatagramSocket socket) {
+        //the DNS responder listens on loopback, nothing to bind to
+    }
+
+    private class RedirectingSocket extends Socket {
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            if (endpoint instanceof InetSocketAddress && ((InetSocketAddress) endpoint).getPort() == HTTP_PORT) {
+                endpoint = new InetSocketAddress(((InetSocketAddress) endpoint).getAddress(), mEmulatorPort);
+            }
+            super.connect(endpoint, timeout);
+        }
+    }
+}
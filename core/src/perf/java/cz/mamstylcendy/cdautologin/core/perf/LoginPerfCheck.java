@@ -0,0 +1,227 @@
+package cz.mamstylcendy.cdautologin.core.perf;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import cz.mamstylcendy.cdautologin.core.CDWiFiLoginImpl;
+import cz.mamstylcendy.cdautologin.core.CaptivePortalInfo;
+import cz.mamstylcendy.cdautologin.core.CoreLog;
+import cz.mamstylcendy.cdautologin.core.Deadline;
+import cz.mamstylcendy.cdautologin.core.LoginClients;
+import cz.mamstylcendy.cdautologin.core.LoginPlatform;
+import cz.mamstylcendy.cdautologin.core.LoginTimings;
+import cz.mamstylcendy.cdautologin.core.LoginTrace;
+import cz.mamstylcendy.cdautologin.core.PortalAddressBook;
+import cz.mamstylcendy.cdautologin.core.PortalFingerprints;
+import cz.mamstylcendy.cdautologin.core.SpeculationStats;
+
+/**
+ * Drives detection and login end to end against the {@link PortalEmulator} under several network
+ * conditions, and exits with an error if the median time-to-login of any scenario is over its
+ * budget. Run by {@code ./gradlew :core:perfCheck}, or as part of {@code check} with
+ * {@code -PwithPerfCheck}.
+ */
+public class LoginPerfCheck {
+
+    private static final int WARMUP_RUNS = 1;
+    private static final int MEASURED_RUNS = 7;
+    //mirrors the worker, which retries quickly before rescheduling
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long ATTEMPT_BUDGET_MS = 20000;
+
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("legacy, ideal link", PortalEmulator.Portal.LEGACY,
+                    NetworkConditions.ideal(), 1, false, false, false, 500),
+            new Scenario("legacy, slow link", PortalEmulator.Portal.LEGACY,
+                    new NetworkConditions(150, 64 * 1024, 0, 0), 1, false, false, false, 1500),
+            new Scenario("legacy, stale form", PortalEmulator.Portal.LEGACY,
+                    new NetworkConditions(50, 0, 0, 0), 1, true, false, false, 1000),
+            new Scenario("passengera, ideal link", PortalEmulator.Portal.PASSENGERA,
+                    NetworkConditions.ideal(), 1, false, false, false, 500),
+            new Scenario("passengera, lossy DNS", PortalEmulator.Portal.PASSENGERA,
+                    new NetworkConditions(100, 0, 0.3, 0), 2, false, false, false, 1500),
+            new Scenario("legacy, flaky HTTP", PortalEmulator.Portal.LEGACY,
+                    new NetworkConditions(50, 0, 0, 0.1), 1, false, false, false, 1000),
+            new Scenario("passengera, slow link", PortalEmulator.Portal.PASSENGERA,
+                    new NetworkConditions(150, 64 * 1024, 0, 0), 1, false, false, false, 1500),
+            new Scenario("passengera, slow, speculative", PortalEmulator.Portal.PASSENGERA,
+                    new NetworkConditions(150, 64 * 1024, 0, 0), 1, false, true, false, 800),
+            new Scenario("legacy, slow, speculative", PortalEmulator.Portal.LEGACY,
+                    new NetworkConditions(150, 64 * 1024, 0, 0), 1, false, true, false, 1500),
+            new Scenario("passengera, slow, system URL", PortalEmulator.Portal.PASSENGERA,
+                    new NetworkConditions(150, 64 * 1024, 0, 0), 1, false, false, true, 1500),
+            new Scenario("legacy, slow, system URL", PortalEmulator.Portal.LEGACY,
+                    new NetworkConditions(150, 64 * 1024, 0, 0), 1, false, false, true, 1500),
+    };
+
+    private static class Scenario {
+        final String name;
+        final PortalEmulator.Portal portal;
+        final NetworkConditions conditions;
+        final int nameserverCount;
+        final boolean staleFirstForm;
+        final boolean speculativeLogin;
+        //the platform passes the portal URL along, as the system does to the sign-in activity
+        final boolean systemPortalUrl;
+        final long budgetMs;
+
+        Scenario(String name, PortalEmulator.Portal portal, NetworkConditions conditions, int nameserverCount, boolean staleFirstForm, boolean speculativeLogin, boolean systemPortalUrl, long budgetMs) {
+            this.name = name;
+            this.portal = portal;
+            this.conditions = conditions;
+            this.nameserverCount = nameserverCount;
+            this.staleFirstForm = staleFirstForm;
+            this.speculativeLogin = speculativeLogin;
+            this.systemPortalUrl = systemPortalUrl;
+            this.budgetMs = budgetMs;
+        }
+    }
+
+    private static class EmulatorPlatform implements LoginPlatform {
+        private final List<InetAddress> mNameservers;
+        private final String mCaptivePortalUrl;
+
+        EmulatorPlatform(List<InetAddress> nameservers, String captivePortalUrl) {
+            mNameservers = nameservers;
+            mCaptivePortalUrl = captivePortalUrl;
+        }
+
+        @Override
+        public boolean isConnectedToWifi() {
+            return true;
+        }
+
+        @Override
+        public List<InetAddress> getDNSServers() {
+            return mNameservers;
+        }
+
+        @Override
+        public InetAddress getDefaultGateway() {
+            return null;
+        }
+
+        @Override
+        public String getWifiSSID() {
+            return "CDWiFi";
+        }
+
+        @Override
+        public String getWifiBSSID() {
+            return null;
+        }
+
+        @Override
+        public String getCaptivePortalUrl() {
+            return mCaptivePortalUrl;
+        }
+
+        @Override
+        public PortalAddressBook getAddressBook() {
+            return null;
+        }
+
+        @Override
+        public PortalFingerprints getFingerprints() {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean verbose = Boolean.getBoolean("perfCheck.verbose");
+        if (verbose) {
+            LoginTrace.setSink((tag, message) -> System.err.println(tag + ": " + message));
+        } else {
+            CoreLog.setSink((priority, tag, message, th) -> {
+                if (priority >= CoreLog.WARN && th != null) {
+                    System.err.println(tag + ": " + message + ": " + th);
+                }
+            });
+        }
+
+        boolean allPassed = true;
+        for (Scenario scenario : SCENARIOS) {
+            allPassed &= runScenario(scenario, verbose);
+        }
+        System.out.println("Speculative logins: " + SpeculationStats.getInstance().describe());
+        if (!allPassed) {
+            System.err.println("Time-to-login is over budget, see above.");
+            System.exit(1);
+        }
+    }
+
+    private static boolean runScenario(Scenario scenario, boolean verbose) throws Exception {
+        List<Long> times = new ArrayList<>();
+        int failures = 0;
+        for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            long time = runOnce(scenario, run, verbose);
+            if (run < WARMUP_RUNS) {
+                continue;
+            }
+            if (time < 0) {
+                failures++;
+            } else {
+                times.add(time);
+            }
+        }
+        Collections.sort(times);
+        long median = times.isEmpty() ? -1 : times.get(times.size() / 2);
+        long max = times.isEmpty() ? -1 : times.get(times.size() - 1);
+        boolean passed = failures == 0 && median <= scenario.budgetMs;
+        System.out.println(String.format(Locale.ROOT, "%-4s %-30s median %5d ms, max %5d ms, budget %5d ms, %d failed logins  [%s]",
+                passed ? "OK" : "FAIL", scenario.name, median, max, scenario.budgetMs, failures, scenario.conditions));
+        return passed;
+    }
+
+    /**
+     * @return Time-to-login in milliseconds, or -1 if all attempts failed.
+     */
+    private static long runOnce(Scenario scenario, int run, boolean verbose) throws IOException {
+        InetAddress[] nameservers = new InetAddress[scenario.nameserverCount];
+        for (int i = 0; i < nameservers.length; i++) {
+            nameservers[i] = InetAddress.getByAddress(new byte[]{127, 0, 0, (byte) (i + 1)});
+        }
+        try (PortalEmulator emulator = new PortalEmulator(scenario.portal, scenario.conditions, nameservers, scenario.staleFirstForm, run)) {
+            //a fresh set of clients per run, the worker process is usually cold too
+            LoginClients clients = new LoginClients(new EmulatorSocketBinding(emulator.getHttpPort()), 4, 2);
+            clients.dns.setPort(emulator.getDNSPort());
+            CDWiFiLoginImpl cdwifi = new CDWiFiLoginImpl(new EmulatorPlatform(Arrays.asList(nameservers),
+                    scenario.systemPortalUrl ? PortalEmulator.CAPTIVE_REDIRECT : null), clients);
+            cdwifi.setSpeculativeLogin(scenario.speculativeLogin);
+
+            long startTime = System.nanoTime();
+            try {
+                for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                    LoginTimings timings = new LoginTimings();
+                    cdwifi.setDeadline(Deadline.after(ATTEMPT_BUDGET_MS));
+                    cdwifi.setTimings(timings);
+                    try {
+                        cdwifi.prefetch();
+                        CaptivePortalInfo info = cdwifi.detectCaptivePortal();
+                        if (info.isSupported() && cdwifi.cdWifiLogin(info) && emulator.isLoggedIn()) {
+                            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                        }
+                    } catch (IOException ex) {
+                        if (verbose) {
+                            System.err.println("Attempt " + attempt + " failed: " + ex);
+                        }
+                    } finally {
+                        cdwifi.cancelPrefetch();
+                    }
+                    if (verbose) {
+                        System.err.println(timings.describe());
+                    }
+                }
+                return -1;
+            } finally {
+                clients.connectionPool.evictAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cz.mamstylcendy.cdautologin.core.perf;
+
+/**
+ * How bad the emulated train link is. Applied by the emulator on its side of every exchange.
+ */
+public class NetworkConditions {
+
+    //added before every HTTP response and DNS answer
+    public final long latencyMs;
+    //0 for unlimited
+    public final long bytesPerSecond;
+    //probability of a DNS query being dropped
+    public final double dnsLossRate;
+    //probability of an HTTP connection being closed without a response
+    public final double httpFailureRate;
+
+    public NetworkConditions(long latencyMs, long bytesPerSecond, double dnsLossRate, double httpFailureRate) {
+        this.latencyMs = latencyMs;
+        this.bytesPerSecond = bytesPerSecond;
+        this.dnsLossRate = dnsLossRate;
+        this.httpFailureRate = httpFailureRate;
+    }
+
+    public static NetworkConditions ideal() {
+        return new NetworkConditions(0, 0, 0, 0);
+    }
+
+    @Override
+    public String toString() {
+        return latencyMs + " ms, " + (bytesPerSecond != 0 ? bytesPerSecond / 1024 + " KiB/s" : "unlimited")
+                + ", DNS loss " + Math.round(dnsLossRate * 100) + " %, HTTP failures " + Math.round(httpFailureRate * 100) + " %";
+    }
+}
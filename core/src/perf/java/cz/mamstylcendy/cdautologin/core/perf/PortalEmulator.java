@@ -0,0 +1,269 @@
+package cz.mamstylcendy.cdautologin.core.perf;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the CD Wi-Fi network: the DNS forwarder of the router, the redirecting
+ * connectivity check and both portal generations. Everything listens on loopback, so it runs
+ * offline and unprivileged.
+ */
+public class PortalEmulator implements Closeable {
+
+    public enum Portal {
+        //the gateway page carries a form with a one-time secret
+        LEGACY,
+        //the gateway page is a script app, login goes through the authenticate API
+        PASSENGERA
+    }
+
+    public static final String PORTAL_HOST = "cdwifi.cz";
+    private static final String CONNECTIVITY_HOST = "connectivitycheck.gstatic.com";
+    private static final String LEGACY_FORM_ACTION = "/portal/login";
+    private static final String PASSENGERA_AUTHENTICATE_PATH = "/portal/api/vehicle/gateway/user/authenticate";
+    public static final String CAPTIVE_REDIRECT = "http://cdwifi.cz/captive?url=http%3A%2F%2Fconnectivitycheck.gstatic.com%2Fgenerate_204";
+
+    //the real gateway pages carry inline styles and scripts, the form is near the top
+    private static final int GATEWAY_PAGE_BYTES = 24 * 1024;
+    private static final int WRITE_CHUNK_BYTES = 1460;
+
+    private final Portal mPortal;
+    private final NetworkConditions mConditions;
+    private final Random mRandom;
+    private final boolean mStaleFirstForm;
+
+    private final HttpServer mServer;
+    private final ExecutorService mServerExecutor = Executors.newCachedThreadPool();
+    private final EmulatorDNSResponder[] mDNSResponders;
+
+    private boolean mLoggedIn;
+    private String mSecret;
+    private int mFormsServed;
+
+    /**
+     * @param nameservers    Loopback addresses to run a DNS responder on, all on the same port.
+     * @param staleFirstForm If true, the secret of the first form served is refused, like after
+     *                       the portal restarted between detection and login.
+     */
+    public PortalEmulator(Portal portal, NetworkConditions conditions, InetAddress[] nameservers, boolean staleFirstForm, long seed) throws IOException {
+        mPortal = portal;
+        mConditions = conditions;
+        mRandom = new Random(seed);
+        mStaleFirstForm = staleFirstForm;
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        mServer = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+        mServer.createContext("/", this::handle);
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+
+        mDNSResponders = new EmulatorDNSResponder[nameservers.length];
+        int dnsPort = 0;
+        for (int i = 0; i < nameservers.length; i++) {
+            mDNSResponders[i] = new EmulatorDNSResponder(nameservers[i], dnsPort, loopback, conditions, mRandom);
+            dnsPort = mDNSResponders[i].getPort();
+        }
+    }
+
+    public int getHttpPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    public int getDNSPort() {
+        return mDNSResponders[0].getPort();
+    }
+
+    public synchronized boolean isLoggedIn() {
+        return mLoggedIn;
+    }
+
+    private boolean randomChance(double rate) {
+        synchronized (mRandom) {
+            return rate > 0 && mRandom.nextDouble() < rate;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            drainRequestBody(exchange);
+            if (randomChance(mConditions.httpFailureRate)) {
+                //the connection dies without an answer, as when the train leaves the cell
+                return;
+            }
+            sleep(mConditions.latencyMs);
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            if (host != null && host.indexOf(':') != -1) {
+                host = host.substring(0, host.indexOf(':'));
+            }
+            if (CONNECTIVITY_HOST.equals(host)) {
+                handleConnectivityCheck(exchange);
+            } else if (PORTAL_HOST.equals(host)) {
+                handlePortal(exchange);
+            } else {
+                respond(exchange, 404, null, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void drainRequestBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            exchange.setAttribute("body", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void handleConnectivityCheck(HttpExchange exchange) throws IOException {
+        if (isLoggedIn()) {
+            respond(exchange, 204, null, null);
+        } else {
+            respond(exchange, 302, CAPTIVE_REDIRECT, null);
+        }
+    }
+
+    private void handlePortal(HttpExchange exchange) throws IOException {
+        URI uri = exchange.getRequestURI();
+        if ("POST".equals(exchange.getRequestMethod()) && LEGACY_FORM_ACTION.equals(uri.getPath()) && mPortal == Portal.LEGACY) {
+            Map<String, String> form = parseQuery((String) exchange.getAttribute("body"));
+            boolean accepted;
+            synchronized (this) {
+                accepted = mSecret != null && mSecret.equals(form.get("secret")) && "on".equals(form.get("eula"));
+                if (accepted) {
+                    mLoggedIn = true;
+                }
+            }
+            respond(exchange, 200, null, accepted ? loggedInPage() : legacyGatewayPage());
+        } else if (PASSENGERA_AUTHENTICATE_PATH.equals(uri.getPath())) {
+            if (mPortal != Portal.PASSENGERA) {
+                //a speculative login on the legacy portal
+                respond(exchange, 404, null, null);
+                return;
+            }
+            Map<String, String> query = parseQuery(uri.getRawQuery());
+            synchronized (this) {
+                mLoggedIn = true;
+            }
+            respond(exchange, 307, query.get("url"), null);
+        } else if ("GET".equals(exchange.getRequestMethod())) {
+            if (isLoggedIn()) {
+                respond(exchange, 200, null, loggedInPage());
+            } else {
+                respond(exchange, 200, null, mPortal == Portal.LEGACY ? legacyGatewayPage() : passengeraGatewayPage());
+            }
+        } else {
+            respond(exchange, 405, null, null);
+        }
+    }
+
+    private String legacyGatewayPage() {
+        String secret;
+        synchronized (this) {
+            secret = Long.toHexString(mRandom.nextLong());
+            mFormsServed++;
+            //a stale first form stays refused, the next one replaces it
+            mSecret = mStaleFirstForm && mFormsServed == 1 ? null : secret;
+        }
+        return pad("<!DOCTYPE html>\n<html lang=\"cs\">\n<head>\n<meta charset=\"utf-8\">\n<title>ČD Wi-Fi</title>\n</head>\n<body>\n"
+                + "<h1>Vítejte v síti ČD Wi-Fi</h1>\n"
+                + "<form method=\"post\" action=\"" + LEGACY_FORM_ACTION + "\">\n"
+                + "<input type=\"hidden\" name=\"secret\" value=\"" + secret + "\">\n"
+                + "<label><input type=\"checkbox\" name=\"eula\" checked> Souhlasím s podmínkami</label>\n"
+                + "<button type=\"submit\">Připojit</button>\n"
+                + "</form>\n");
+    }
+
+    private static String passengeraGatewayPage() {
+        return pad("<!DOCTYPE html>\n<html lang=\"cs\">\n<head>\n<meta charset=\"utf-8\">\n<title>ČD Wi-Fi</title>\n</head>\n<body>\n"
+                + "<div id=\"app\"></div>\n");
+    }
+
+    private static String loggedInPage() {
+        return "<!DOCTYPE html>\n<html lang=\"cs\"><body><p>Jste připojeni k internetu.</p></body></html>\n";
+    }
+
+    /**
+     * Fills the page up to the size of the real one with an inline script and closes it.
+     */
+    private static String pad(String head) {
+        StringBuilder sb = new StringBuilder(GATEWAY_PAGE_BYTES);
+        sb.append(head).append("<script>\n");
+        while (sb.length() < GATEWAY_PAGE_BYTES - 32) {
+            sb.append("window.portalConfig = window.portalConfig || {};\n");
+        }
+        return sb.append("</script>\n</body>\n</html>\n").toString();
+    }
+
+    private void respond(HttpExchange exchange, int code, String location, String html) throws IOException {
+        if (location != null) {
+            exchange.getResponseHeaders().set("Location", location);
+        }
+        byte[] body = html != null ? html.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (html != null) {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        }
+        exchange.sendResponseHeaders(code, body.length != 0 ? body.length : -1);
+        if (body.length == 0) {
+            return;
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = 0; offset < body.length; offset += WRITE_CHUNK_BYTES) {
+                int length = Math.min(WRITE_CHUNK_BYTES, body.length - offset);
+                out.write(body, offset, length);
+                out.flush();
+                if (mConditions.bytesPerSecond != 0) {
+                    sleep(length * 1000L / mConditions.bytesPerSecond);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq != -1) {
+                result.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+        for (EmulatorDNSResponder responder : mDNSResponders) {
+            responder.close();
+        }
+    }
+}